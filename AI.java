@@ -1,6 +1,7 @@
 package amazons;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import static amazons.Piece.*;
 
 /** A Player that automatically generates moves.
@@ -20,14 +21,33 @@ class AI extends Player {
     private static final int INFTY = Integer.MAX_VALUE;
 
     /**
-     * Integer for max depth.
+     * Deepest search iterative deepening will attempt.
      */
-    private static final int DEEPNESS = 19;
+    static final int MAX_DEPTH = 100;
 
     /**
-     * Increment max depth.
+     * Default time budget per move, in milliseconds.
      */
-    private static final int INC = 1;
+    static final long DEFAULT_MOVE_MILLIS = 2000;
+
+    /**
+     * Longest a ponder search runs, as a multiple of the time budget
+     * per move.
+     */
+    private static final int PONDER_LIMIT = 20;
+
+    /**
+     * Largest time budget per move, in milliseconds, whose ponder limit
+     * can be added to the clock without overflow.  Longer budgets are
+     * pondered as if they were this long.
+     */
+    private static final long MAX_PONDER_MILLIS =
+        Long.MAX_VALUE / (2 * PONDER_LIMIT * 1_000_000L);
+
+    /**
+     * The search checks the clock once every CHECK_INTERVAL + 1 nodes.
+     */
+    private static final int CHECK_INTERVAL = 0x3ff;
 
     /**
      * A new AI with no piece or controller (intended to produce
@@ -44,37 +64,390 @@ class AI extends Player {
         super(piece, controller);
     }
 
+    /**
+     * A new AI playing PIECE under control of CONTROLLER, with the
+     * same settings as TEMPLATE.
+     */
+    private AI(Piece piece, Controller controller, AI template) {
+        super(piece, controller);
+        _hashMegabytes = template._hashMegabytes;
+        _moveMillis = template._moveMillis;
+        _depthLimit = template._depthLimit;
+        _threads = template._threads;
+        _book = template._book;
+        _ponder = template._ponder;
+        _solver.setTablebase(template._solver.tablebase());
+    }
+
+    /**
+     * A helper searcher for MAIN, sharing its transposition table.
+     */
+    private AI(AI main) {
+        super(null, null);
+        _table = main._table;
+        _depthLimit = main._depthLimit;
+        _solver.setTablebase(main._solver.tablebase());
+        _helper = true;
+    }
+
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /**
+     * Use transposition tables of MEGABYTES megabytes.  Returns this AI.
+     */
+    AI setHashMegabytes(int megabytes) {
+        _hashMegabytes = megabytes;
+        _table = null;
+        _pool = null;
+        return this;
+    }
+
+    /**
+     * Forget all transposition table entries, so that the next search
+     * does not depend on earlier ones.
+     */
+    void clearTable() {
+        if (_table != null) {
+            _table.clear();
+        }
+    }
+
+    /**
+     * Spend at most about MILLIS milliseconds choosing each move.
+     * Returns this AI.
+     */
+    AI setMoveMillis(long millis) {
+        _moveMillis = millis;
+        return this;
+    }
+
+    /**
+     * Search no deeper than DEPTH levels, however much time remains.
+     * Returns this AI.
+     */
+    AI setDepthLimit(int depth) {
+        _depthLimit = Math.max(1, Math.min(depth, MAX_DEPTH));
+        _pool = null;
+        return this;
+    }
+
+    /**
+     * Search with THREADS threads in all.  Returns this AI.
+     */
+    AI setThreads(int threads) {
+        _threads = Math.max(1, threads);
+        _pool = null;
+        return this;
+    }
+
+    /**
+     * Look up small endgame regions in TABLEBASE (null for none).
+     * Returns this AI.
+     */
+    AI setTablebase(RegionTablebase tablebase) {
+        _solver.setTablebase(tablebase);
+        _pool = null;
+        return this;
+    }
+
+    /**
+     * Play the moves in BOOK (null for none) where it has them, without
+     * searching.  Returns this AI.
+     */
+    AI setBook(OpeningBook book) {
+        _book = book;
+        return this;
+    }
+
+    /**
+     * Iff PONDER, search during the opponent's turns the position that
+     * will arise if the opponent plays the reply I expect.  Returns this
+     * AI.
+     */
+    AI setPonder(boolean ponder) {
+        _ponder = ponder;
+        return this;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        Board board = _controller.board();
+        Move move = findMove(board);
         _controller.reportMove(move);
+        startPondering(board, move);
         return move.toString();
     }
 
     /**
-     * Return a move for me from the current position, assuming there
-     * is a move.
+     * Return a move for the side to move in BOARD, assuming there is a
+     * move.  Uses iterative deepening: searches to depth 1, 2, ... until
+     * the time budget or depth limit is reached, and returns the best
+     * move of the last search that ran to completion.  Each search tries
+     * the best move of the previous one first.  With more than one
+     * thread, helper searches run on copies of BOARD at the same time,
+     * sharing only the transposition table (the "lazy SMP" scheme): the
+     * entries they add make this search faster and deeper.  Once the
+     * spears have separated the sides, the move is instead found by
+     * _solver within the same time budget, and a position in _book is
+     * answered from the book.
+     * Stops any ponder search; if it was searching BOARD and its best
+     * move is still in the transposition table, the search resumes at
+     * the depth it had completed, most of whose results are still in
+     * the table, with that move to fall back on if time runs out.
      */
-    private Move findMove() {
-        Board b = _controller.board();
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+    @Override
+    Move findMove(Board board) {
+        stopPondering();
+        int ponderedDepth =
+            board.key() == _ponderedKey ? _ponderedDepth : 0;
+        _ponderedDepth = 0;
+        if (_book != null) {
+            int t = board.canonicalTransform();
+            long entry = _book.probe(board.key(t));
+            Move move = entry == 0 ? null
+                : Move.mv(Move.transform(OpeningBook.move(entry),
+                                         Square.inverse(t)));
+            if (move != null && board.isLegal(move)) {
+                _nodes = _helperNodes = 0;
+                _rootScore = OpeningBook.score(entry);
+                return move;
+            }
+        }
+        _rootScore = 0;
+        long deadline = System.nanoTime() + _moveMillis * 1_000_000L;
+        int solved = _solver.bestMove(board, EndgameSolver.ROOT_BUDGET,
+                                      deadline);
+        if (solved != 0) {
+            _nodes = _helperNodes = 0;
+            return Move.mv(solved);
+        }
+        if (_table == null) {
+            _table = new TranspositionTable(_hashMegabytes);
+        }
+        int firstDepth = 1, rootMove = 0;
+        if (ponderedDepth > 0) {
+            rootMove = TranspositionTable.move(_table.probe(board.key()));
+            if (rootMove != 0 && board.isLegal(Move.mv(rootMove))) {
+                firstDepth = ponderedDepth;
+            } else {
+                rootMove = 0;
+            }
+        }
+        _table.newSearch();
+        startHelpers(board, deadline);
+        int best = iterate(board, deadline, firstDepth, rootMove);
+        stopHelpers();
+        return best == 0 ? null : Move.mv(best);
+    }
+
+    /**
+     * If pondering is on, start a thread searching the position that
+     * will follow MOVE in BOARD if the opponent then plays the reply
+     * stored for that position in the transposition table.  Nothing is
+     * started if there is no stored reply or the game will be over.
+     */
+    private void startPondering(Board board, Move move) {
+        if (!_ponder || _table == null) {
+            return;
+        }
+        Board next = board.snapshot();
+        next.makeMove(move);
+        if (next.winner() != null) {
+            return;
+        }
+        int reply = TranspositionTable.move(_table.probe(next.key()));
+        if (reply == 0 || !next.isLegal(Move.mv(reply))) {
+            return;
+        }
+        next.makeMove(reply);
+        if (next.winner() != null) {
+            return;
+        }
+        long deadline = System.nanoTime() + PONDER_LIMIT * 1_000_000L
+            * Math.min(_moveMillis, MAX_PONDER_MILLIS);
+        _ponderKey = next.key();
+        _ponderReply = reply;
+        _stop = false;
+        _ponderer = new Thread(() -> {
+            _table.newSearch();
+            startHelpers(next, deadline);
+            iterate(next, deadline, 1, 0);
+            stopHelpers();
+        });
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    @Override
+    void stop() {
+        stopPondering();
+    }
+
+    @Override
+    void reset(long seed) {
+        stopPondering();
+        _ponderedDepth = 0;
+        clearTable();
+        _ordering.clear();
+        _solver.clear();
+        if (_helpers != null) {
+            for (AI helper : _helpers) {
+                helper._ordering.clear();
+                helper._solver.clear();
+            }
+        }
+    }
+
+    /**
+     * Return the reply assumed by the ponder search started after my
+     * last move, or null if none was started.
+     */
+    Move ponderMove() {
+        return _ponderer == null ? null : Move.mv(_ponderReply);
+    }
+
+    /**
+     * Return true iff my ponder search is still running.
+     */
+    boolean pondering() {
+        return _ponderer != null && _ponderer.isAlive();
+    }
+
+    /**
+     * Stop my ponder search, if any, and wait for it to finish, noting
+     * the position it searched and the depth it completed.
+     */
+    private void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        _stop = true;
+        boolean interrupted = false;
+        while (_ponderer.isAlive()) {
+            try {
+                _ponderer.join();
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        _ponderer = null;
+        _stop = false;
+        _ponderedKey = _ponderKey;
+        _ponderedDepth = _completedDepth;
+    }
+
+    /**
+     * Return the number of positions visited by the last findMove, in
+     * all threads.
+     */
+    @Override
+    long nodes() {
+        return _nodes + _helperNodes;
+    }
+
+    /**
+     * Return the value, positive when good for White, of the move
+     * returned by the last findMove, or 0 if it was not found by
+     * searching.
+     */
+    int score() {
+        return _rootScore;
+    }
+
+    /**
+     * Search BOARD by iterative deepening, starting at depth FIRSTDEPTH,
+     * until DEADLINE (a value of System.nanoTime()), the depth limit, or
+     * a stop request.  Return the packed best move of the last completed
+     * iteration, or ROOTMOVE (a packed move, or 0 if none) if there is
+     * none.  Only a search with a move to return may be aborted.
+     */
+    private int iterate(Board board, long deadline, int firstDepth,
+                        int rootMove) {
+        _ordering.newSearch();
+        long start = System.nanoTime();
+        _deadline = deadline;
+        _aborted = false;
+        _nodes = 0;
+        _rootMove = rootMove;
+        _completedDepth = 0;
+        _rootSymmetries = board.symmetries();
+        int sense = board.turn() == WHITE ? 1 : -1;
+        for (int depth = firstDepth; depth <= _depthLimit; depth++) {
+            _mayAbort = _rootMove != 0 || _helper;
+            _iterationDepth = depth;
+            _lastFoundMove = 0;
+            int score = findMove(board, depth, true, sense, -INFTY, INFTY);
+            if (_aborted || _lastFoundMove == 0) {
+                break;
+            }
+            _rootMove = _lastFoundMove;
+            _rootScore = score;
+            _completedDepth = depth;
+            long elapsed = System.nanoTime() - start;
+            if (Math.abs(score) == WINNING_VALUE
+                || !_helper && 2 * elapsed > deadline - start) {
+                break;
+            }
+        }
+        return _rootMove;
+    }
+
+    /**
+     * Start my helper threads, if I have any, searching copies of BOARD
+     * until DEADLINE.  Half of them skip depth 1, so that the helpers
+     * do not all search the same depth at the same time.
+     */
+    private void startHelpers(Board board, long deadline) {
+        if (_threads <= 1) {
+            return;
+        }
+        if (_pool == null) {
+            _pool = new ForkJoinPool(_threads - 1);
+            _helpers = new AI[_threads - 1];
+            for (int k = 0; k < _helpers.length; k++) {
+                _helpers[k] = new AI(this);
+            }
+        }
+        _tasks = new ForkJoinTask<?>[_helpers.length];
+        for (int k = 0; k < _helpers.length; k++) {
+            AI helper = _helpers[k];
+            Board copy = board.snapshot();
+            int firstDepth = 1 + (k + 1) % 2;
+            helper._stop = false;
+            _tasks[k] = _pool.submit(() ->
+                helper.iterate(copy, deadline, firstDepth, 0));
+        }
+    }
+
+    /**
+     * Stop my helper threads, if any, and wait for them to finish.
+     */
+    private void stopHelpers() {
+        _helperNodes = 0;
+        if (_tasks == null) {
+            return;
+        }
+        for (AI helper : _helpers) {
+            helper._stop = true;
+        }
+        for (int k = 0; k < _tasks.length; k++) {
+            _tasks[k].join();
+            _helperNodes += _helpers[k]._nodes;
         }
-        return _lastFoundMove;
+        _tasks = null;
     }
 
     /**
-     * The move found by the last call to one of the ...FindMove methods
-     * below.
+     * The packed move found by the last call to one of the ...FindMove
+     * methods below, or 0 if none.
      */
-    private Move _lastFoundMove;
+    private int _lastFoundMove;
 
     /**
      * Find a move from position BOARD and return its value, recording
@@ -82,93 +455,310 @@ class AI extends Player {
      * should have maximal value or have value > BETA if SENSE==1,
      * and minimal value or value < ALPHA if SENSE==-1. Searches up to
      * DEPTH levels.  Searching at level 0 simply returns a static estimate
-     * of the board value and does not set _lastMoveFound.
+     * of the board value and does not set _lastMoveFound.  Results are
+     * recorded in and reused from _table.  Moves are tried in the order
+     * chosen by _ordering, starting with the best move recorded for
+     * BOARD in _table, if any.
      */
     private int findMove(Board board, int depth, boolean saveMove, int sense,
                          int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
+        _nodes++;
+        if ((_nodes & CHECK_INTERVAL) == 0
+            && (_stop || _mayAbort && System.nanoTime() > _deadline)) {
+            _aborted = true;
+        }
+        if (_aborted) {
+            return 0;
+        }
+        if (depth == 0 || board.winner() != null
+            || !saveMove && _solver.winner(board) != null) {
             return staticScore(board);
         }
-        Move bestMove = null;
+        long key = board.key();
+        long entry = _table.probe(key);
+        if (entry != 0 && !saveMove
+            && TranspositionTable.depth(entry) >= depth) {
+            int score = TranspositionTable.score(entry);
+            switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return score;
+            case TranspositionTable.LOWER:
+                alpha = Math.max(alpha, score);
+                break;
+            default:
+                beta = Math.min(beta, score);
+                break;
+            }
+            if (beta <= alpha) {
+                return score;
+            }
+        }
+        int[] moves = moveBuffer(depth);
+        int numMoves = board.legalMoves(moves);
+        if (saveMove && _rootSymmetries != 0) {
+            numMoves = Move.distinct(moves, numMoves, _rootSymmetries);
+        }
+        int ply = _iterationDepth - depth;
+        int hashMove = TranspositionTable.move(entry);
+        if (saveMove && _rootMove != 0) {
+            hashMove = _rootMove;
+        }
+        _ordering.order(ply, board.turn(), moves, numMoves, hashMove);
+        int searchAlpha = alpha, searchBeta = beta;
+        int bestMove = -1;
         int bestScore;
         if (sense == 1) {
             bestScore = -INFTY;
-            Iterator<Move> iterWhite = board.legalMoves();
-            for (Move step = iterWhite.next();
-                 step != null; step = iterWhite.next()) {
+            for (int i = 0; i < numMoves; i++) {
+                int step = _ordering.next(ply, i, numMoves);
                 board.makeMove(step);
                 int result = findMove(board, depth - 1, false, -1,
                         alpha, beta);
                 board.undo();
+                if (_aborted) {
+                    return 0;
+                }
                 if (result >= bestScore) {
                     bestMove = step;
                     bestScore = result;
                     alpha = Math.max(alpha, result);
                     if (beta <= alpha) {
+                        _ordering.cutoff(ply, WHITE, step, depth);
                         break;
                     }
                 }
             }
         } else {
             bestScore = INFTY;
-            Iterator<Move> iterBlack = board.legalMoves();
-            for (Move step = iterBlack.next();
-                 step != null; step = iterBlack.next()) {
+            for (int i = 0; i < numMoves; i++) {
+                int step = _ordering.next(ply, i, numMoves);
                 board.makeMove(step);
                 int result = findMove(board, depth - 1, false, 1,
                         alpha, beta);
                 board.undo();
+                if (_aborted) {
+                    return 0;
+                }
                 if (result <= bestScore) {
                     bestMove = step;
                     bestScore = result;
                     beta = Math.min(beta, result);
                     if (beta <= alpha) {
+                        _ordering.cutoff(ply, BLACK, step, depth);
                         break;
                     }
                 }
             }
         }
+        int bound;
+        if (bestScore <= searchAlpha) {
+            bound = TranspositionTable.UPPER;
+        } else if (bestScore >= searchBeta) {
+            bound = TranspositionTable.LOWER;
+        } else {
+            bound = TranspositionTable.EXACT;
+        }
+        _table.store(key, depth, bound, bestScore, Math.max(bestMove, 0));
         if (saveMove) {
-            _lastFoundMove = bestMove;
+            _lastFoundMove = Math.max(bestMove, 0);
         }
         return bestScore;
     }
 
     /**
-     * Return a heuristically determined maximum search depth
-     * based on characteristics of BOARD.
+     * Return the buffer of packed moves used at search level DEPTH,
+     * creating it the first time that depth is reached.  Each level of
+     * the search reuses its own buffer, so that searching creates no
+     * garbage per node.
      */
-    private int maxDepth(Board board) {
-        int k = board.numMoves();
-        return (k / DEEPNESS) + INC;
+    private int[] moveBuffer(int depth) {
+        if (depth >= _moveBuffers.length) {
+            _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+        }
+        if (_moveBuffers[depth] == null) {
+            _moveBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _moveBuffers[depth];
     }
 
+    /**
+     * Move buffers for each search level, indexed by remaining depth.
+     */
+    private int[][] _moveBuffers = new int[0][];
+
+    /**
+     * Size of my transposition table in megabytes.
+     */
+    private int _hashMegabytes = TranspositionTable.DEFAULT_MEGABYTES;
+
+    /**
+     * Time budget per move, in milliseconds.
+     */
+    private long _moveMillis = DEFAULT_MOVE_MILLIS;
+
+    /**
+     * Deepest search to attempt.
+     */
+    private int _depthLimit = MAX_DEPTH;
+
+    /**
+     * Value of System.nanoTime() at which the current search must stop.
+     */
+    private long _deadline;
+
+    /**
+     * True iff the current search may be abandoned when time runs out:
+     * that is, once some iteration has produced a move.
+     */
+    private boolean _mayAbort;
+
+    /**
+     * True iff the current iteration has been abandoned.  Its results
+     * are then discarded and not stored in _table.
+     */
+    private boolean _aborted;
+
+    /**
+     * Number of positions visited by the current search.
+     */
+    private long _nodes;
+
+    /**
+     * Packed best move of the last completed iteration, or 0.
+     */
+    private int _rootMove;
+
+    /**
+     * Depth of the last completed iteration of the current search.
+     */
+    private int _completedDepth;
+
+    /**
+     * The value of the move returned by the last findMove.
+     */
+    private int _rootScore;
+
+    /**
+     * The symmetries of the position being searched (see
+     * Board.symmetries).  Only one of each set of root moves that are
+     * images of each other under them need be searched.
+     */
+    private int _rootSymmetries;
+
+    /**
+     * Depth of the current iteration.
+     */
+    private int _iterationDepth;
+
+    /**
+     * Move ordering state (killer moves and history scores).
+     */
+    private final MoveOrdering _ordering = new MoveOrdering();
+
+    /**
+     * Evaluates positions at the leaves of my search.
+     */
+    private final TerritoryEvaluator _evaluator = new TerritoryEvaluator();
+
+    /**
+     * Decides positions in which the sides have been separated.
+     */
+    private final EndgameSolver _solver = new EndgameSolver();
+
+    /**
+     * Moves to play without searching, or null.
+     */
+    private OpeningBook _book;
+
+    /**
+     * True iff I search during the opponent's turns.
+     */
+    private boolean _ponder;
+
+    /**
+     * Runs my ponder search, or null if there is none.
+     */
+    private Thread _ponderer;
+
+    /**
+     * Key of the position being searched by my ponder search.
+     */
+    private long _ponderKey;
+
+    /**
+     * The packed reply my ponder search assumes.
+     */
+    private int _ponderReply;
+
+    /**
+     * Key of the position my last ponder search searched.
+     */
+    private long _ponderedKey;
+
+    /**
+     * Depth my last ponder search completed, or 0 if it completed none
+     * or its result has been used.
+     */
+    private int _ponderedDepth;
+
+    /**
+     * Number of search threads, including the one calling findMove.
+     */
+    private int _threads = 1;
+
+    /**
+     * True iff I am a helper searching for another AI.
+     */
+    private boolean _helper;
+
+    /**
+     * Set to ask a helper's search to stop.
+     */
+    private volatile boolean _stop;
+
+    /**
+     * Runs my helpers, or null if they have not been created (or my
+     * settings have changed since).  Its threads end when idle.
+     */
+    private ForkJoinPool _pool;
+
+    /**
+     * My helper searchers, valid when _pool is non-null.
+     */
+    private AI[] _helpers;
+
+    /**
+     * The searches being run by my helpers, or null if none.
+     */
+    private ForkJoinTask<?>[] _tasks;
+
+    /**
+     * Number of positions visited by my helpers in the last findMove.
+     */
+    private long _helperNodes;
+
+    /**
+     * Results of earlier searches, kept from move to move.  Created
+     * when first needed, so that templates do not hold one.
+     */
+    private TranspositionTable _table;
+
     /**
      * Return a heuristic value for BOARD.
      */
-    private int staticScore(Board board) {
+    int staticScore(Board board) {
         Piece winner = board.winner();
         if (winner == BLACK) {
             return -WINNING_VALUE;
         } else if (winner == WHITE) {
             return WINNING_VALUE;
         }
-        ArrayList<Square> whiteList = board.getWhiteQueens();
-        ArrayList<Square> blackList = board.getBlackQueens();
-        int whiteQueenMoves = 0;
-        int blackQueenMoves = 0;
-        for (Square q : whiteList) {
-            Iterator<Square> iterWhite = board.reachableFrom(q, null);
-            while (iterWhite.next() != null) {
-                whiteQueenMoves++;
-            }
-        }
-        for (Square q : blackList) {
-            Iterator<Square> iterBlack = board.reachableFrom(q, null);
-            while (iterBlack.next() != null) {
-                blackQueenMoves++;
-            }
+        winner = _solver.winner(board);
+        if (winner == BLACK) {
+            return -WINNING_VALUE;
+        } else if (winner == WHITE) {
+            return WINNING_VALUE;
         }
-        return whiteQueenMoves - blackQueenMoves;
+        return _evaluator.evaluate(board);
     }
 }
@@ -0,0 +1,259 @@
+package amazons;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/** The benchmark corpus, the bench search, and a quick smoke test of
+ *  the engine's hot paths (move generation, making and undoing moves,
+ *  legality tests, static evaluation and search) over the corpus.
+ *  Each smoke benchmark is warmed up and then timed over whole passes
+ *  of the corpus, and reports its time per operation and, where the JVM
+ *  can measure it, the bytes allocated per operation.  Its timing loop
+ *  is naive, so use it only to catch gross regressions without a build;
+ *  the JMH benchmarks in jmh/ ("gradle jmh") are the real measurements.
+ *
+ *  Run as "java amazons.Benchmark [NAME [MS]]", where NAME, if present
+ *  and not "all", selects the benchmarks whose names contain it, and MS
+ *  is the time spent measuring each (after as long again warming up).
+ *  @author Warner Tsang
+ */
+final class Benchmark {
+
+    /** Numbers of random plies leading to the corpus positions of each
+     *  phase: opening, middlegame and endgame. */
+    static final int[] PHASE_PLIES = { 4, 24, 48 };
+
+    /** Number of corpus positions per phase. */
+    static final int POSITIONS_PER_PHASE = 4;
+
+    /** Search depth of bench with no explicit depth. */
+    static final int BENCH_DEPTH = 2;
+
+    /** Depth of the searches timed by the findMove benchmarks. */
+    static final int SEARCH_DEPTH = 2;
+
+    /** Return the benchmark corpus: POSITIONS_PER_PHASE positions for
+     *  each phase in PHASE_PLIES, each reached from the initial position
+     *  by random moves from a fixed seed.  The corpus is the same in
+     *  every run, and no position in it is finished. */
+    static Board[] corpus() {
+        List<Board> result = new ArrayList<>();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int plies : PHASE_PLIES) {
+            for (int k = 0; k < POSITIONS_PER_PHASE; k++) {
+                Random random = new Random(CORPUS_SEED + k);
+                Board board = new Board();
+                for (int i = 0; i < plies; i++) {
+                    board.makeMove(moves[random.nextInt(
+                        board.legalMoves(moves))]);
+                    if (board.winner() != null) {
+                        board.undo();
+                        break;
+                    }
+                }
+                result.add(board);
+            }
+        }
+        return result.toArray(new Board[result.size()]);
+    }
+
+    /** Search each corpus position to depth DEPTH with a new
+     *  single-threaded AI, and print to OUT the total number of nodes,
+     *  a signature of the node counts and moves found, and the search
+     *  rate.  The nodes and signature depend only on the search code,
+     *  not on the machine or the time taken, so they show whether a
+     *  change to the engine has changed its search.  Returns the
+     *  signature. */
+    static long bench(int depth, PrintStream out) {
+        long nodes = 0, nanos = 0;
+        long signature = SIGNATURE_BASIS;
+        for (Board board : corpus()) {
+            AI ai = new AI().setDepthLimit(depth)
+                .setMoveMillis(Long.MAX_VALUE / 2_000_000L);
+            long start = System.nanoTime();
+            Move move = ai.findMove(board);
+            nanos += System.nanoTime() - start;
+            nodes += ai.nodes();
+            for (long value : new long[] { ai.nodes(), move.packed() }) {
+                signature = (signature ^ value) * SIGNATURE_PRIME;
+            }
+        }
+        out.printf("bench %d: %d nodes, signature %016x, %d nodes/s%n",
+                   depth, nodes, signature,
+                   (long) (nodes * 1e9 / Math.max(1, nanos)));
+        return signature;
+    }
+
+    /** Run the benchmarks selected by ARGS (see above). */
+    public static void main(String... args) {
+        String filter = args.length > 0 && !args[0].equals("all")
+            ? args[0] : "";
+        long millis = args.length > 1 ? Long.parseLong(args[1])
+            : DEFAULT_MILLIS;
+        Board[] corpus = corpus();
+        int[][] moves = new int[corpus.length][];
+        Move[][] moveObjects = new Move[corpus.length][];
+        int totalMoves = 0;
+        for (int p = 0; p < corpus.length; p++) {
+            int[] buffer = new int[Board.MAX_MOVES];
+            int n = corpus[p].legalMoves(buffer);
+            moves[p] = Arrays.copyOf(buffer, n);
+            moveObjects[p] = new Move[n];
+            for (int i = 0; i < n; i++) {
+                moveObjects[p][i] = Move.mv(buffer[i]);
+            }
+            totalMoves += n;
+        }
+        System.out.printf("%d positions, %d legal moves%n", corpus.length,
+                          totalMoves);
+        System.out.printf("%-22s %14s %12s%n", "benchmark", "ns/op", "B/op");
+
+        Benchmark bench = new Benchmark(filter, millis);
+        int[] buffer = new int[Board.MAX_MOVES];
+        bench.run("legalMoves", corpus.length, () -> {
+            long sum = 0;
+            for (Board board : corpus) {
+                sum += board.legalMoves(buffer);
+            }
+            return sum;
+        });
+        bench.run("countLegalMoves", corpus.length, () -> {
+            long sum = 0;
+            for (Board board : corpus) {
+                sum += board.countLegalMoves(board.turn());
+            }
+            return sum;
+        });
+        bench.run("legalMovesIterator", totalMoves, () -> {
+            long sum = 0;
+            for (Board board : corpus) {
+                for (Iterator<Move> i = board.legalMoves(); i.hasNext();) {
+                    sum += i.next().packed();
+                }
+            }
+            return sum;
+        });
+        bench.run("makeMoveUndo", totalMoves, () -> {
+            long sum = 0;
+            for (int p = 0; p < corpus.length; p++) {
+                Board board = corpus[p];
+                for (int move : moves[p]) {
+                    board.makeMove(move);
+                    sum += board.key();
+                    board.undo();
+                }
+            }
+            return sum;
+        });
+        bench.run("isLegal", totalMoves, () -> {
+            long sum = 0;
+            for (int p = 0; p < corpus.length; p++) {
+                for (Move move : moveObjects[p]) {
+                    sum += corpus[p].isLegal(move) ? 1 : 0;
+                }
+            }
+            return sum;
+        });
+        AI ai = new AI().setDepthLimit(SEARCH_DEPTH)
+            .setMoveMillis(Long.MAX_VALUE / 2_000_000L);
+        bench.run("staticScore", corpus.length, () -> {
+            long sum = 0;
+            for (Board board : corpus) {
+                sum += ai.staticScore(board);
+            }
+            return sum;
+        });
+        bench.run("findMove", corpus.length, () -> {
+            long sum = 0;
+            for (Board board : corpus) {
+                ai.clearTable();
+                sum += ai.findMove(board).packed();
+            }
+            return sum;
+        });
+    }
+
+    /** A benchmark that is one pass over the corpus: returns a value
+     *  depending on all the work done, so that it cannot be skipped. */
+    private interface Pass {
+        /** Do the pass and return a value depending on all of it. */
+        long run();
+    }
+
+    /** A benchmark runner that runs the benchmarks whose names contain
+     *  FILTER, warming up and then measuring each for MILLIS ms. */
+    private Benchmark(String filter, long millis) {
+        _filter = filter;
+        _nanos = millis * 1_000_000L;
+    }
+
+    /** If NAME is selected, time PASS, which performs OPS operations,
+     *  and report the time and allocation per operation. */
+    private void run(String name, int ops, Pass pass) {
+        if (!name.contains(_filter)) {
+            return;
+        }
+        timePasses(pass, _nanos);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long passes = timePasses(pass, _nanos);
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        double perOp = (double) passes * ops;
+        System.out.printf("%-22s %14.1f %12s%n", name, elapsed / perOp,
+                          bytes < 0 ? "n/a"
+                          : String.format("%.1f", bytes / perOp));
+    }
+
+    /** Run PASS repeatedly for at least NANOS ns (and at least once) and
+     *  return the number of passes. */
+    private static long timePasses(Pass pass, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long passes = 0;
+        long sink = 0;
+        do {
+            sink += pass.run();
+            passes += 1;
+        } while (System.nanoTime() < deadline);
+        _sink += sink;
+        return passes;
+    }
+
+    /** Return the number of bytes allocated so far by the current
+     *  thread, or -1 if the JVM cannot tell. */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads =
+            ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** Seed of the random games leading to the first corpus position of
+     *  each phase; position K uses CORPUS_SEED + K. */
+    private static final long CORPUS_SEED = 0x636f72707573L;
+
+    /** Starting value and multiplier of the bench signature (those of
+     *  the 64-bit FNV-1a hash). */
+    private static final long SIGNATURE_BASIS = 0xcbf29ce484222325L,
+        SIGNATURE_PRIME = 0x100000001b3L;
+
+    /** Time spent warming up and measuring each benchmark by default. */
+    private static final long DEFAULT_MILLIS = 1000;
+
+    /** Accumulates benchmark results, so that no work can be skipped. */
+    private static volatile long _sink;
+
+    /** Part of the benchmark names to run. */
+    private final String _filter;
+
+    /** Time spent warming up and measuring each benchmark. */
+    private final long _nanos;
+}
@@ -0,0 +1,185 @@
+package amazons;
+
+/** Static tables and helpers for sets of squares held as 100-bit masks.
+ *  A set is represented by two longs: the LO word holds the squares with
+ *  index 0-63 (bit i is square i), and the HI word holds the squares
+ *  with index 64-99 (bit i - 64 is square i).  Directions are numbered
+ *  as in Square.queenMove: 0 is north, and they increase clockwise.
+ *  @author Warner Tsang
+ */
+final class Bitboards {
+
+    /** Not instantiable. */
+    private Bitboards() {
+    }
+
+    /** Number of squares held in the LO word. */
+    static final int LO_BITS = 64;
+
+    /** Number of squares on the board. */
+    static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Change in square index for one step in each direction. */
+    static final int[] DELTA = new int[8];
+
+    /** RAY_LO[8 * S + D] and RAY_HI[8 * S + D] are the squares strictly
+     *  beyond square S in direction D, up to the edge of the board. */
+    static final long[] RAY_LO = new long[8 * NUM_SQUARES],
+        RAY_HI = new long[8 * NUM_SQUARES];
+
+    /** RAY_LEN[8 * S + D] is the number of squares in the ray from S in
+     *  direction D. */
+    static final int[] RAY_LEN = new int[8 * NUM_SQUARES];
+
+    /** BETWEEN_LO[NUM_SQUARES * F + T] and BETWEEN_HI[NUM_SQUARES * F + T]
+     *  are the squares strictly between squares F and T, if F-T is a
+     *  queen move, and empty otherwise. */
+    static final long[] BETWEEN_LO = new long[NUM_SQUARES * NUM_SQUARES],
+        BETWEEN_HI = new long[NUM_SQUARES * NUM_SQUARES];
+
+    /** STEPS[NUM_SQUARES * F + T] is the number of steps in the queen
+     *  move F-T, or 0 if F-T is not a queen move. */
+    private static final byte[] STEPS = new byte[NUM_SQUARES * NUM_SQUARES];
+
+    /** Squares in the HI word that are on the board. */
+    static final long HI_MASK = (1L << (NUM_SQUARES - LO_BITS)) - 1;
+
+    /** SHIFT_LO[D] and SHIFT_HI[D] are the squares that a one-step shift
+     *  in direction D can land on without wrapping around an edge. */
+    private static final long[] SHIFT_LO = new long[8], SHIFT_HI = new long[8];
+
+    static {
+        Square center = Square.sq(1, 1);
+        for (int d = 0; d < 8; d += 1) {
+            DELTA[d] = center.queenMove(d, 1).index() - center.index();
+        }
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            for (int d = 0; d < 8; d += 1) {
+                Square[] ray = Square.sq(s).ray(d);
+                long lo, hi;
+                lo = hi = 0;
+                for (int i = 0; i < ray.length; i += 1) {
+                    Square t = ray[i];
+                    int k = NUM_SQUARES * s + t.index();
+                    STEPS[k] = (byte) (i + 1);
+                    BETWEEN_LO[k] = lo;
+                    BETWEEN_HI[k] = hi;
+                    lo |= lo(t.index());
+                    hi |= hi(t.index());
+                }
+                RAY_LO[8 * s + d] = lo;
+                RAY_HI[8 * s + d] = hi;
+                RAY_LEN[8 * s + d] = ray.length;
+            }
+        }
+        for (int d = 0; d < 8; d += 1) {
+            for (int s = 0; s < NUM_SQUARES; s += 1) {
+                Square back = Square.sq(s).queenMove((d + 4) % 8, 1);
+                if (back != null) {
+                    SHIFT_LO[d] |= lo(s);
+                    SHIFT_HI[d] |= hi(s);
+                }
+            }
+        }
+    }
+
+    /** Return true iff square INDEX is in the set LO, HI. */
+    static boolean contains(long lo, long hi, int index) {
+        if (index < LO_BITS) {
+            return (lo & (1L << index)) != 0;
+        }
+        return (hi & (1L << (index - LO_BITS))) != 0;
+    }
+
+    /** Return the LO word of the set containing only square INDEX. */
+    static long lo(int index) {
+        return index < LO_BITS ? 1L << index : 0L;
+    }
+
+    /** Return the HI word of the set containing only square INDEX. */
+    static long hi(int index) {
+        return index < LO_BITS ? 0L : 1L << (index - LO_BITS);
+    }
+
+    /** Return the smallest square index in the set LO, HI, or -1 if it
+     *  is empty. */
+    static int first(long lo, long hi) {
+        if (lo != 0) {
+            return Long.numberOfTrailingZeros(lo);
+        } else if (hi != 0) {
+            return LO_BITS + Long.numberOfTrailingZeros(hi);
+        }
+        return -1;
+    }
+
+    /** Return the largest square index in the set LO, HI, or -1 if it
+     *  is empty. */
+    static int last(long lo, long hi) {
+        if (hi != 0) {
+            return 2 * LO_BITS - 1 - Long.numberOfLeadingZeros(hi);
+        } else if (lo != 0) {
+            return LO_BITS - 1 - Long.numberOfLeadingZeros(lo);
+        }
+        return -1;
+    }
+
+    /** Return the number of squares in the set LO, HI. */
+    static int count(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /** Return the LO word of the set of squares one step in direction
+     *  DIR from the squares in LO, HI.  Steps that would leave the board
+     *  are dropped. */
+    static long shiftLo(long lo, long hi, int dir) {
+        int k = DELTA[dir];
+        long r = k > 0 ? lo << k : (lo >>> -k) | (hi << (LO_BITS + k));
+        return r & SHIFT_LO[dir];
+    }
+
+    /** Return the HI word of the set of squares one step in direction
+     *  DIR from the squares in LO, HI, as for shiftLo. */
+    static long shiftHi(long lo, long hi, int dir) {
+        int k = DELTA[dir];
+        long r = k > 0 ? (hi << k) | (lo >>> (LO_BITS - k)) : hi >>> -k;
+        return r & SHIFT_HI[dir];
+    }
+
+    /** Return true iff FROM-TO is a queen move whose intermediate
+     *  squares are all absent from OCCLO, OCCHI.  The contents of TO
+     *  itself are not examined. */
+    static boolean clearPath(int from, int to, long occLo, long occHi) {
+        int k = NUM_SQUARES * from + to;
+        return (BETWEEN_LO[k] & occLo) == 0 && (BETWEEN_HI[k] & occHi) == 0;
+    }
+
+    /** Return the first square in the set OCCLO, OCCHI that a queen on
+     *  square FROM moving in direction DIR would run into, or -1 if there
+     *  is none before the edge of the board.  The square is found with a
+     *  single bit scan rather than by stepping along the ray. */
+    static int blocker(int from, int dir, long occLo, long occHi) {
+        int k = 8 * from + dir;
+        long lo = RAY_LO[k] & occLo, hi = RAY_HI[k] & occHi;
+        if (lo == 0 && hi == 0) {
+            return -1;
+        }
+        return DELTA[dir] > 0 ? first(lo, hi) : last(lo, hi);
+    }
+
+    /** Return the number of empty squares a queen on square FROM can
+     *  slide over in direction DIR, given that the occupied squares are
+     *  OCCLO, OCCHI. */
+    static int rayLength(int from, int dir, long occLo, long occHi) {
+        return rayLength(from, dir, blocker(from, dir, occLo, occHi));
+    }
+
+    /** Return the number of squares a queen on square FROM can slide over
+     *  in direction DIR when the first occupied square in that direction
+     *  is BLOCKER (-1 if none), as returned by blocker. */
+    static int rayLength(int from, int dir, int blocker) {
+        if (blocker < 0) {
+            return RAY_LEN[8 * from + dir];
+        }
+        return STEPS[NUM_SQUARES * from + blocker] - 1;
+    }
+}
@@ -1,8 +1,9 @@
 package amazons;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Collections;
+import java.util.List;
 import static amazons.Piece.*;
 
 
@@ -19,30 +20,38 @@ class Board {
 
     /**
      * Cached value of winner on this board, or EMPTY if it has not been
-     * computed.
+     * computed.  makeMove leaves it EMPTY, and winner computes it when
+     * first asked, so that a search that never asks pays nothing.
      */
-
     private Piece _winner;
 
     /**
-     * Stores pieces on the board.
+     * Occupancy masks of the pieces on the board, indexed by the ordinal
+     * of the Piece.  _lo holds squares 0-63 and _hi squares 64-99 (see
+     * Bitboards).  The EMPTY entries are unused and always 0.
      */
-    private Piece[][] _pieceArray;
+    private final long[] _lo = new long[PIECES.length],
+        _hi = new long[PIECES.length];
 
     /**
-     * Tracks all the previous moves for undo.
+     * Tracks all the moves made, in packed form (see Move.pack), for
+     * undo.  Only the first _numMoves entries are meaningful.  The array
+     * may be shared with copies of this board (see _historyShared).
      */
-    private ArrayList<Square> _moveHistory;
+    private int[] _moveHistory = NO_HISTORY;
 
     /**
-     * Tracks all the current moves for undo.
+     * True iff _moveHistory may be shared with another board, in which
+     * case it must be copied before it is modified.  Because each board
+     * reads only the entries below its own _numMoves, and never writes
+     * a shared array, copies need not duplicate the history up front.
      */
-    private ArrayList<Square> _moveTo;
+    private boolean _historyShared;
 
     /**
-     * Tracks all the spears for undo.
+     * Zobrist hash of the current position (see Zobrist).
      */
-    private ArrayList<Square> _spearTracker;
+    private long _key;
 
     /**
      * Count of moves.
@@ -50,19 +59,31 @@ class Board {
     private int _numMoves;
 
     /**
-     * Remaining starting squares to consider.
+     * The square indices of the queens of each side, in increasing order.
+     * _queens[side(WHITE)] holds the white queens and
+     * _queens[side(BLACK)] the black ones; only the first
+     * _queenCount[side] entries are meaningful.
+     */
+    private int[][] _queens = new int[2][QUEENS];
+
+    /**
+     * The number of queens of each side.
      */
-    private Iterator<Square> _startingSquares;
+    private final int[] _queenCount = new int[2];
 
     /**
-     * Track the squares of all white queens.
+     * The number of queen moves (ignoring spear throws) available to
+     * each side, indexed like _queenCount.  Kept up to date as squares
+     * change (see changeMobility).
      */
-    private ArrayList<Square> _whiteQueens;
+    private final int[] _mobility = new int[2];
 
     /**
-     * Track the squares of all black pieces.
+     * Views of the white and black queens, as returned by getWhiteQueens
+     * and getBlackQueens.
      */
-    private ArrayList<Square> _blackQueens;
+    private final QueenList _whiteQueens = new QueenList(WHITE),
+        _blackQueens = new QueenList(BLACK);
 
 
     /**
@@ -70,6 +91,23 @@ class Board {
      */
     static final int SIZE = 10;
 
+    /**
+     * An upper bound on the number of legal moves in any position: four
+     * queens, each with at most 35 destinations and at most 35 spear
+     * throws from each.
+     */
+    static final int MAX_MOVES = 4 * 35 * 35;
+
+    /**
+     * Number of queens per side in a normal game.
+     */
+    private static final int QUEENS = 4;
+
+    /**
+     * Initial capacity of the move history.
+     */
+    private static final int INITIAL_HISTORY = 92;
+
     /**
      * Initializes a game board with SIZE squares on a side in the
      * initial position.
@@ -86,7 +124,12 @@ class Board {
     }
 
     /**
-     * Copies MODEL into me.
+     * Copies MODEL into me.  Afterwards, each board may be changed
+     * without affecting the other: the pieces are copied (a few dozen
+     * bytes), and the move history is shared until either board next
+     * makes a move.  This modifies MODEL's bookkeeping, so it should be
+     * done by the thread that is using MODEL, or while MODEL is not in
+     * use; the copy may then be handed to another thread.
      */
     void copy(Board model) {
         if (model == this) {
@@ -94,12 +137,29 @@ class Board {
         }
         this._turn = model._turn;
         this._winner = model._winner;
-        this._pieceArray = model._pieceArray;
+        System.arraycopy(model._lo, 0, _lo, 0, _lo.length);
+        System.arraycopy(model._hi, 0, _hi, 0, _hi.length);
         this._moveHistory = model._moveHistory;
-        this._moveTo = model._moveTo;
-        this._spearTracker = model._spearTracker;
+        this._historyShared = model._historyShared = true;
+        for (int k = 0; k < 2; k++) {
+            int n = model._queenCount[k];
+            if (_queens[k].length < n) {
+                _queens[k] = new int[model._queens[k].length];
+            }
+            System.arraycopy(model._queens[k], 0, _queens[k], 0, n);
+            this._queenCount[k] = n;
+            this._mobility[k] = model._mobility[k];
+        }
         this._numMoves = model._numMoves;
+        this._key = model._key;
+    }
 
+    /**
+     * Return a new board that is an independent copy of me, as for
+     * copy.
+     */
+    Board snapshot() {
+        return new Board(this);
     }
 
     /**
@@ -108,23 +168,19 @@ class Board {
     void init() {
         _turn = WHITE;
         _winner = null;
-        _pieceArray = new Piece[SIZE][SIZE];
-        _moveHistory = new ArrayList<>();
-        _moveTo = new ArrayList<>();
-        _spearTracker = new ArrayList<>();
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                _pieceArray[j][i] = EMPTY;
-            }
-        }
-        _pieceArray[0][3] = WHITE;
-        _pieceArray[3][0] = WHITE;
-        _pieceArray[6][0] = WHITE;
-        _pieceArray[9][3] = WHITE;
-        _pieceArray[0][6] = BLACK;
-        _pieceArray[3][9] = BLACK;
-        _pieceArray[6][9] = BLACK;
-        _pieceArray[9][6] = BLACK;
+        Arrays.fill(_lo, 0L);
+        Arrays.fill(_hi, 0L);
+        Arrays.fill(_queenCount, 0);
+        Arrays.fill(_mobility, 0);
+        _key = Zobrist.turnKey(WHITE);
+        put(WHITE, 0, 3);
+        put(WHITE, 3, 0);
+        put(WHITE, 6, 0);
+        put(WHITE, 9, 3);
+        put(BLACK, 0, 6);
+        put(BLACK, 3, 9);
+        put(BLACK, 6, 9);
+        put(BLACK, 9, 6);
         _numMoves = 0;
     }
 
@@ -143,11 +199,97 @@ class Board {
         return _numMoves;
     }
 
+    /**
+     * Return the 64-bit Zobrist hash of the current position: the
+     * placement of the queens and spears and the side to move.  Equal
+     * positions have equal keys, however they were reached.
+     */
+    long key() {
+        return _key;
+    }
+
+    /**
+     * Return the key (see key) of the image of the current position
+     * under symmetry T (see Square.transform).
+     */
+    long key(int t) {
+        long key = Zobrist.turnKey(_turn);
+        for (int k = 1; k < PIECES.length; k++) {
+            for (long lo = _lo[k], hi = _hi[k]; (lo | hi) != 0;) {
+                int s = Bitboards.first(lo, hi);
+                lo &= ~Bitboards.lo(s);
+                hi &= ~Bitboards.hi(s);
+                key ^= Zobrist.key(PIECES[k], Square.transform(s, t));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Return the symmetry (see Square.transform) whose image of the
+     * current position has the least key, preferring the identity and
+     * then lower-numbered symmetries.  Symmetric positions share their
+     * least key (see canonicalKey), so tables indexed by it need hold
+     * only one entry for all of them.  A move M in the current position
+     * corresponds to M.transform(T) in the image under T.
+     */
+    int canonicalTransform() {
+        int best = 0;
+        long bestKey = _key;
+        for (int t = 1; t < Square.SYMMETRIES; t++) {
+            long key = key(t);
+            if (key < bestKey) {
+                best = t;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the least key of an image of the current position under a
+     * symmetry, which is the same for all symmetric positions.
+     */
+    long canonicalKey() {
+        return key(canonicalTransform());
+    }
+
+    /**
+     * Return the set of symmetries other than the identity that leave
+     * the current position unchanged, as a mask with bit T set for
+     * symmetry T.
+     */
+    int symmetries() {
+        int result = 0;
+        for (int t = 1; t < Square.SYMMETRIES; t++) {
+            boolean same = true;
+            for (int k = 1; k < PIECES.length && same; k++) {
+                for (long lo = _lo[k], hi = _hi[k]; (lo | hi) != 0;) {
+                    int s = Bitboards.first(lo, hi);
+                    lo &= ~Bitboards.lo(s);
+                    hi &= ~Bitboards.hi(s);
+                    if (!Bitboards.contains(_lo[k], _hi[k],
+                                            Square.transform(s, t))) {
+                        same = false;
+                        break;
+                    }
+                }
+            }
+            if (same) {
+                result |= 1 << t;
+            }
+        }
+        return result;
+    }
+
     /**
      * Return the winner in the current position, or null if the game is
      * not yet finished.
      */
     Piece winner() {
+        if (_winner == EMPTY) {
+            _winner = noMoves(_turn) ? _turn.opponent() : null;
+        }
         return _winner;
     }
 
@@ -155,7 +297,7 @@ class Board {
      * Return the contents the square at S.
      */
     final Piece get(Square s) {
-        return _pieceArray[s.col()][s.row()];
+        return get(s.index());
     }
 
     /**
@@ -163,21 +305,167 @@ class Board {
      * 0 <= COL, ROW <= 9.
      */
     final Piece get(int col, int row) {
-        return _pieceArray[col][row];
+        if (!Square.exists(col, row)) {
+            throw new IndexOutOfBoundsException("no square at " + col
+                    + ", " + row);
+        }
+        return get(col + SIZE * row);
+    }
+
+    /**
+     * Return the contents of the square with index INDEX.
+     */
+    private Piece get(int index) {
+        for (int k = 1; k < PIECES.length; k++) {
+            if (Bitboards.contains(_lo[k], _hi[k], index)) {
+                return PIECES[k];
+            }
+        }
+        return EMPTY;
     }
 
     /**
      * Set square S to P.
      */
     final void put(Piece p, Square s) {
-        _pieceArray[s.col()][s.row()] = p;
+        put(p, s.index());
     }
 
     /**
      * Set square (COL, ROW) to P.
      */
     final void put(Piece p, int col, int row) {
-        _pieceArray[col][row] = p;
+        if (!Square.exists(col, row)) {
+            throw new IndexOutOfBoundsException("no square at " + col
+                    + ", " + row);
+        }
+        put(p, col + SIZE * row);
+    }
+
+    /**
+     * Set the square with index INDEX to P.  This does not change the
+     * winner, which is that of the position after the last move, so
+     * that is settled first.
+     */
+    private void put(Piece p, int index) {
+        winner();
+        Piece old = get(index);
+        if (old == WHITE || old == BLACK) {
+            removeQueen(side(old), index);
+        }
+        if (p == WHITE || p == BLACK) {
+            addQueen(side(p), index);
+        }
+        _key ^= Zobrist.key(old, index) ^ Zobrist.key(p, index);
+        if (old != EMPTY) {
+            toggle(old, index);
+            changeMobility(old, index, 1);
+        }
+        if (p != EMPTY) {
+            changeMobility(p, index, -1);
+            toggle(p, index);
+        }
+    }
+
+    /**
+     * Add P (WHITE, BLACK or SPEAR) to the square with index INDEX if it
+     * is not there, or remove it if it is, in the occupancy masks only.
+     */
+    private void toggle(Piece p, int index) {
+        _lo[p.ordinal()] ^= Bitboards.lo(index);
+        _hi[p.ordinal()] ^= Bitboards.hi(index);
+    }
+
+    /**
+     * Update _mobility for P (WHITE, BLACK or SPEAR) being removed from
+     * (if SIGN is 1) or placed on (if SIGN is -1) the square with index
+     * INDEX, which must be empty in the occupancy masks when this is
+     * called.  Only the queens that see INDEX along a line are affected:
+     * each gains or loses INDEX and the squares beyond it, and a queen
+     * on INDEX itself brings or takes away its own moves.
+     */
+    private void changeMobility(Piece p, int index, int sign) {
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        long whiteLo = _lo[WHITE.ordinal()], whiteHi = _hi[WHITE.ordinal()];
+        long blackLo = _lo[BLACK.ordinal()], blackHi = _hi[BLACK.ordinal()];
+        long queensLo = whiteLo | blackLo, queensHi = whiteHi | blackHi;
+        boolean queen = p == WHITE || p == BLACK;
+        int own = 0;
+        for (int d = 0; d < 4; d++) {
+            int k = 8 * index + d;
+            if (!queen
+                && ((Bitboards.RAY_LO[k] | Bitboards.RAY_LO[k + 4])
+                    & queensLo) == 0
+                && ((Bitboards.RAY_HI[k] | Bitboards.RAY_HI[k + 4])
+                    & queensHi) == 0) {
+                continue;
+            }
+            int b0 = Bitboards.blocker(index, d, occLo, occHi),
+                b1 = Bitboards.blocker(index, d + 4, occLo, occHi);
+            int len0 = Bitboards.rayLength(index, d, b0),
+                len1 = Bitboards.rayLength(index, d + 4, b1);
+            own += len0 + len1;
+            if (b0 >= 0) {
+                if (Bitboards.contains(whiteLo, whiteHi, b0)) {
+                    _mobility[side(WHITE)] += sign * (len1 + 1);
+                } else if (Bitboards.contains(blackLo, blackHi, b0)) {
+                    _mobility[side(BLACK)] += sign * (len1 + 1);
+                }
+            }
+            if (b1 >= 0) {
+                if (Bitboards.contains(whiteLo, whiteHi, b1)) {
+                    _mobility[side(WHITE)] += sign * (len0 + 1);
+                } else if (Bitboards.contains(blackLo, blackHi, b1)) {
+                    _mobility[side(BLACK)] += sign * (len0 + 1);
+                }
+            }
+        }
+        if (queen) {
+            _mobility[side(p)] -= sign * own;
+        }
+    }
+
+    /**
+     * Return the LO word (see Bitboards) of the set of squares holding
+     * P (WHITE, BLACK or SPEAR).
+     */
+    long piecesLo(Piece p) {
+        return _lo[p.ordinal()];
+    }
+
+    /**
+     * Return the HI word of the set of squares holding P, as for
+     * piecesLo.
+     */
+    long piecesHi(Piece p) {
+        return _hi[p.ordinal()];
+    }
+
+    /**
+     * Return the LO word of the set of occupied squares.
+     */
+    long occupiedLo() {
+        return _lo[WHITE.ordinal()] | _lo[BLACK.ordinal()]
+            | _lo[SPEAR.ordinal()];
+    }
+
+    /**
+     * Return the HI word of the set of occupied squares.
+     */
+    long occupiedHi() {
+        return _hi[WHITE.ordinal()] | _hi[BLACK.ordinal()]
+            | _hi[SPEAR.ordinal()];
+    }
+
+    /**
+     * Return true iff square index TO is reachable by an unblocked
+     * queen move from square index FROM when the occupied squares are
+     * OCCLO, OCCHI.
+     */
+    private static boolean reaches(int from, int to, long occLo, long occHi) {
+        return Square.sq(from).isQueenMove(Square.sq(to))
+            && !Bitboards.contains(occLo, occHi, to)
+            && Bitboards.clearPath(from, to, occLo, occHi);
     }
 
     /**
@@ -188,40 +476,16 @@ class Board {
      * empty. ASEMPTY may be null, in which case it has no effect.
      */
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
-        if (from.isQueenMove(to)
-                && get(to) == EMPTY) {
-            if (asEmpty == null) {
-                int direct = from.direction(to);
-                int steps = 0;
-                while (from.queenMove(direct, steps) != to) {
-                    steps++;
-                    Square next = from.queenMove(direct, steps);
-                    Piece nextPiece = get(next);
-                    if (nextPiece != EMPTY) {
-                        return false;
-                    }
-                }
-                return true;
-            } else {
-                if (isUnblockedMove(from, to, null)
-                        && to.isQueenMove(asEmpty)) {
-                    int direct = to.direction(asEmpty);
-                    int steps = 0;
-                    while (to.queenMove(direct, steps) != asEmpty) {
-                        steps++;
-                        Square next = to.queenMove(direct, steps);
-                        Piece nextPiece = get(next);
-                        if (next != from) {
-                            if (nextPiece != EMPTY) {
-                                return false;
-                            }
-                        }
-                    }
-                    return true;
-                }
-            }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        if (!reaches(from.index(), to.index(), occLo, occHi)) {
+            return false;
+        }
+        if (asEmpty == null) {
+            return true;
         }
-        return false;
+        return reaches(to.index(), asEmpty.index(),
+                occLo & ~Bitboards.lo(from.index()),
+                occHi & ~Bitboards.hi(from.index()));
     }
 
     /**
@@ -270,18 +534,7 @@ class Board {
         if (!isLegal(from, to, spear)) {
             return;
         }
-        put(get(from), to);
-        put(EMPTY, from);
-        put(SPEAR, spear);
-        _moveHistory.add(from);
-        _moveTo.add(to);
-        _spearTracker.add(spear);
-        _numMoves++;
-        _turn = _turn.opponent();
-        if (noMoves(_turn)) {
-            _winner = _turn.opponent();
-            return;
-        }
+        makeMove(Move.pack(from.index(), to.index(), spear.index()));
     }
 
     /**
@@ -291,20 +544,59 @@ class Board {
         makeMove(move.from(), move.to(), move.spear());
     }
 
+    /**
+     * Make the move whose packed form (see Move.pack) is MOVE.  Unlike
+     * the other makeMove methods, this does not check legality: MOVE must
+     * be legal in the current position, as are the moves produced by
+     * legalMoves(int[]).  Creates no objects.
+     */
+    void makeMove(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move),
+            spear = Move.spearIndex(move);
+        toggle(_turn, from);
+        changeMobility(_turn, from, 1);
+        changeMobility(_turn, to, -1);
+        toggle(_turn, to);
+        moveQueen(side(_turn), from, to);
+        changeMobility(SPEAR, spear, -1);
+        toggle(SPEAR, spear);
+        _key ^= Zobrist.key(_turn, from) ^ Zobrist.key(_turn, to)
+            ^ Zobrist.key(SPEAR, spear) ^ Zobrist.BLACK_TO_MOVE;
+        if (_historyShared || _numMoves == _moveHistory.length) {
+            int length = _moveHistory.length;
+            if (_numMoves == length) {
+                length = Math.max(INITIAL_HISTORY, 2 * length);
+            }
+            _moveHistory = Arrays.copyOf(_moveHistory, length);
+            _historyShared = false;
+        }
+        _moveHistory[_numMoves] = move;
+        _numMoves++;
+        _turn = _turn.opponent();
+        _winner = EMPTY;
+    }
+
     /**
      * Undo one move.  Has no effect on the initial board.
      */
     void undo() {
+        if (_numMoves == 0) {
+            return;
+        }
         _numMoves--;
-        put(EMPTY, _spearTracker.get(_numMoves));
-        _spearTracker.remove(_numMoves);
-        Piece undoPiece = get(_moveTo.get(_numMoves));
-        Square historyUndo = _moveHistory.get(_numMoves);
-        put(undoPiece, historyUndo);
-        put(EMPTY, _moveTo.get(_numMoves));
-        _moveTo.remove(_numMoves);
-        _moveHistory.remove(_numMoves);
+        int move = _moveHistory[_numMoves];
+        int from = Move.fromIndex(move), to = Move.toIndex(move),
+            spear = Move.spearIndex(move);
+        toggle(SPEAR, spear);
+        changeMobility(SPEAR, spear, 1);
         _turn = _turn.opponent();
+        toggle(_turn, to);
+        changeMobility(_turn, to, 1);
+        changeMobility(_turn, from, -1);
+        toggle(_turn, from);
+        moveQueen(side(_turn), to, from);
+        _key ^= Zobrist.key(_turn, from) ^ Zobrist.key(_turn, to)
+            ^ Zobrist.key(SPEAR, spear) ^ Zobrist.BLACK_TO_MOVE;
         _winner = null;
     }
 
@@ -315,87 +607,120 @@ class Board {
      * @return boolean is the value.
      */
     boolean noMoves(Piece color) {
-        if (color == WHITE) {
-            ArrayList<Square> whites = getWhiteQueens();
-            for (Square s : whites) {
-                Iterator<Square> iter = reachableFrom(s, null);
-                if (iter.next() != null) {
-                    return false;
-                }
-            }
-        } else {
-            ArrayList<Square> blacks = getBlackQueens();
-            for (Square s : blacks) {
-                Iterator<Square> iter = reachableFrom(s, null);
-                if (iter.next() != null) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return _mobility[side(color)] == 0;
     }
 
     /**
-     * Finds the squares of all the black queens on
-     * a given board.
+     * Return the number of queen moves available to COLOR (WHITE or
+     * BLACK), counting each destination of each queen once and ignoring
+     * spear throws.  This is kept up to date as moves are made, so it
+     * costs nothing to ask.
      */
-    public void findBlackQueens() {
-        _blackQueens = new ArrayList<>();
-        _startingSquares = Square.iterator();
-        Square check = _startingSquares.next();
-        int blackCount = 0;
-        while (blackCount < 4) {
-            if (get(check) == BLACK) {
-                _blackQueens.add(check);
-                blackCount++;
-                if (blackCount == 4) {
-                    return;
-                }
-            }
-            check = _startingSquares.next();
-        }
+    int mobility(Piece color) {
+        return _mobility[side(color)];
     }
 
     /**
-     * Finds all white queens on a given board.
+     * Return the squares of the white queens, in increasing order of
+     * index.  The result is a read-only view that tracks this board as
+     * it changes; creating it costs nothing.
+     * @return list
      */
-    public void findWhiteQueens() {
-        _whiteQueens = new ArrayList<>();
-        _startingSquares = Square.iterator();
-        Square check = _startingSquares.next();
-        int whiteCount = 0;
-        while (whiteCount < 4) {
-            if (get(check) == WHITE) {
-                _whiteQueens.add(check);
-                whiteCount++;
-                if (whiteCount == 4) {
-                    return;
-                }
-            }
-            check = _startingSquares.next();
+    List<Square> getWhiteQueens() {
+        return _whiteQueens;
+    }
+
+    /**
+     * Return the squares of the black queens, as for getWhiteQueens.
+     * @return list
+     */
+    List<Square> getBlackQueens() {
+        return _blackQueens;
+    }
+
+    /**
+     * Return the index into _queens and _queenCount for COLOR (WHITE or
+     * BLACK).
+     */
+    private static int side(Piece color) {
+        return color.ordinal() - WHITE.ordinal();
+    }
+
+    /**
+     * Add square index SQ to the queens of SIDE, keeping them in order.
+     */
+    private void addQueen(int side, int sq) {
+        int n = _queenCount[side];
+        if (n == _queens[side].length) {
+            _queens[side] = Arrays.copyOf(_queens[side], 2 * n);
+        }
+        int[] queens = _queens[side];
+        int i;
+        for (i = n; i > 0 && queens[i - 1] > sq; i--) {
+            queens[i] = queens[i - 1];
         }
+        queens[i] = sq;
+        _queenCount[side] = n + 1;
     }
 
     /**
-     * Gets an arrayList of the squares of white
-     * queens.
-     * @return arrayList
+     * Remove square index SQ from the queens of SIDE.
      */
-    ArrayList<Square> getWhiteQueens() {
-        findWhiteQueens();
-        return _whiteQueens;
+    private void removeQueen(int side, int sq) {
+        int[] queens = _queens[side];
+        int n = _queenCount[side] - 1;
+        int i;
+        for (i = 0; queens[i] != sq; i++) {
+            continue;
+        }
+        System.arraycopy(queens, i + 1, queens, i, n - i);
+        _queenCount[side] = n;
     }
 
     /**
-     * Gets an arrayList of the squares of black
-     * queens.
-     * @return arrayList
+     * Record that the queen of SIDE on square index FROM is now on square
+     * index TO, keeping the queens in order.
      */
-    ArrayList<Square> getBlackQueens() {
-        findBlackQueens();
-        return _blackQueens;
+    private void moveQueen(int side, int from, int to) {
+        int[] queens = _queens[side];
+        int last = _queenCount[side] - 1;
+        int i;
+        for (i = 0; queens[i] != from; i++) {
+            continue;
+        }
+        for (; i > 0 && queens[i - 1] > to; i--) {
+            queens[i] = queens[i - 1];
+        }
+        for (; i < last && queens[i + 1] < to; i++) {
+            queens[i] = queens[i + 1];
+        }
+        queens[i] = to;
     }
 
+    /** A read-only view of the squares of one side's queens. */
+    private class QueenList extends AbstractList<Square> {
+
+        /** A view of the queens of COLOR. */
+        QueenList(Piece color) {
+            _side = side(color);
+        }
+
+        @Override
+        public Square get(int k) {
+            if (k < 0 || k >= size()) {
+                throw new IndexOutOfBoundsException("no queen " + k);
+            }
+            return Square.sq(_queens[_side][k]);
+        }
+
+        @Override
+        public int size() {
+            return _queenCount[_side];
+        }
+
+        /** Index of my side in _queens. */
+        private final int _side;
+    }
 
     /** Return an Iterator over the Squares that are reachable by an
      *  unblocked queen move from FROM. Does not pay attention to what
@@ -408,6 +733,94 @@ class Board {
         return new ReachableFromIterator(from, asEmpty);
     }
 
+    /** Store all legal moves on the current board in MOVES, in packed
+     *  form (see Move.pack) and in the same order as legalMoves(), and
+     *  return how many there are.  MOVES must have room for at least
+     *  MAX_MOVES entries; it is typically reused from call to call, so
+     *  that no objects are created. */
+    int legalMoves(int[] moves) {
+        return legalMoves(_turn, moves);
+    }
+
+    /** Store all legal moves on the current board for SIDE (regardless
+     *  of whose turn it is) in MOVES, as for legalMoves(int[]), and
+     *  return how many there are. */
+    int legalMoves(Piece side, int[] moves) {
+        int n = 0;
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        long queensLo = _lo[side.ordinal()], queensHi = _hi[side.ordinal()];
+        for (int from = Bitboards.first(queensLo, queensHi); from >= 0;
+             from = Bitboards.first(queensLo, queensHi)) {
+            queensLo &= ~Bitboards.lo(from);
+            queensHi &= ~Bitboards.hi(from);
+            long spearLo = occLo & ~Bitboards.lo(from),
+                spearHi = occHi & ~Bitboards.hi(from);
+            for (int dir = 0; dir < 8; dir++) {
+                int delta = Bitboards.DELTA[dir];
+                int length = Bitboards.rayLength(from, dir, occLo, occHi);
+                for (int to = from + delta; length > 0;
+                     length--, to += delta) {
+                    for (int spearDir = 0; spearDir < 8; spearDir++) {
+                        int spearDelta = Bitboards.DELTA[spearDir];
+                        int spearLength = Bitboards.rayLength(to, spearDir,
+                                spearLo, spearHi);
+                        for (int spear = to + spearDelta; spearLength > 0;
+                             spearLength--, spear += spearDelta) {
+                            moves[n] = Move.pack(from, to, spear);
+                            n++;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of moves legalMoves(SIDE, ...) would produce,
+     * without producing them.  For each square a queen can move to, the
+     * spear throws from it are counted as the sum of the lengths of its
+     * eight rays, with the queen's old square empty.
+     */
+    int countLegalMoves(Piece side) {
+        int n = 0;
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        long queensLo = _lo[side.ordinal()], queensHi = _hi[side.ordinal()];
+        for (int from = Bitboards.first(queensLo, queensHi); from >= 0;
+             from = Bitboards.first(queensLo, queensHi)) {
+            queensLo &= ~Bitboards.lo(from);
+            queensHi &= ~Bitboards.hi(from);
+            long spearLo = occLo & ~Bitboards.lo(from),
+                spearHi = occHi & ~Bitboards.hi(from);
+            for (int dir = 0; dir < 8; dir++) {
+                int delta = Bitboards.DELTA[dir];
+                int length = Bitboards.rayLength(from, dir, occLo, occHi);
+                for (int to = from + delta; length > 0;
+                     length--, to += delta) {
+                    for (int spearDir = 0; spearDir < 8; spearDir++) {
+                        n += Bitboards.rayLength(to, spearDir, spearLo,
+                                                 spearHi);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of squares a queen on S could move to, which is
+     * the number of empty squares in line with S and not blocked from
+     * it.
+     */
+    int countReachable(Square s) {
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int n = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            n += Bitboards.rayLength(s.index(), dir, occLo, occHi);
+        }
+        return n;
+    }
+
     /** Return an Iterator over all legal moves on the current board. */
     Iterator<Move> legalMoves() {
         return new LegalMoveIterator(_turn);
@@ -425,10 +838,16 @@ class Board {
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = 0;
-            _steps = 0;
-            _asEmpty = asEmpty;
+            _from = from.index();
+            _occLo = occupiedLo();
+            _occHi = occupiedHi();
+            if (asEmpty != null) {
+                _occLo &= ~Bitboards.lo(asEmpty.index());
+                _occHi &= ~Bitboards.hi(asEmpty.index());
+            }
+            _dir = -1;
+            _steps = _length = 0;
+            toNext();
         }
 
         @Override
@@ -438,39 +857,37 @@ class Board {
 
         @Override
         public Square next() {
-            toNext();
             if (!hasNext()) {
                 return null;
-            } else {
-                return _from.queenMove(_dir, _steps);
             }
+            Square result =
+                Square.sq(_from + _steps * Bitboards.DELTA[_dir]);
+            toNext();
+            return result;
         }
 
         /** Advance _dir and _steps, so that the next valid Square is
          *  _steps steps in direction _dir from _from. */
         private void toNext() {
-            while (_from.queenMove(_dir, _steps + 1) == null
-                    || _from.queenMove(_dir, _steps + 1) != _asEmpty
-                    && (get(_from.queenMove(_dir, _steps + 1))
-                                    != EMPTY)) {
-                if (hasNext()) {
-                    _dir++;
-                    _steps = 0;
-                } else {
-                    break;
-                }
-            }
             _steps++;
+            while (_steps > _length && _dir < 8) {
+                _dir++;
+                _steps = 1;
+                _length = _dir < 8
+                    ? Bitboards.rayLength(_from, _dir, _occLo, _occHi) : 0;
+            }
         }
 
-        /** Starting square. */
-        private Square _from;
+        /** Index of the starting square. */
+        private int _from;
         /** Current direction. */
         private int _dir;
         /** Current distance. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Number of reachable squares in direction _dir. */
+        private int _length;
+        /** Occupied squares, not counting the square treated as empty. */
+        private long _occLo, _occHi;
     }
 
     /** An iterator used by legalMoves. */
@@ -480,108 +897,98 @@ class Board {
          * All legal moves for SIDE (WHITE or BLACK).
          */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
-            _spearThrows = NO_SQUARES;
-            _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
-            _start = _startingSquares.next();
-            _nextSpear = Square.sq(0);
-            _nextSquare = Square.sq(0);
-            _queenCount = 0;
-            startFinder();
+            _queensLo = _lo[side.ordinal()];
+            _queensHi = _hi[side.ordinal()];
+            _occLo = occupiedLo();
+            _occHi = occupiedHi();
+            _start = -1;
+            _dir = _spearDir = 7;
+            _steps = _length = _spearSteps = _spearLength = 0;
+            _next = findNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _queenCount < 4;
+            return _next != null;
         }
 
         @Override
         public Move next() {
-            toNext();
-            if (!hasNext()) {
-                return null;
-            } else {
-                return Move.mv(_start, _nextSquare, _nextSpear);
+            Move result = _next;
+            if (result != null) {
+                _next = findNext();
             }
+            return result;
         }
 
         /**
-         * Finds the next valid location of a turn piece.
+         * Return the Move after the last one found, or null if there are
+         * no more.  Moves are produced queen by queen in square order,
+         * then by direction and distance of the piece move, and then by
+         * direction and distance of the spear.
          */
-        private void startFinder() {
-            while (get(_start) != _fromPiece
-                    && _startingSquares.hasNext()
-                    && _start != null) {
-                _start = _startingSquares.next();
-            }
-            if (get(_start) == _fromPiece) {
-                _pieceMoves = reachableFrom(_start, null);
-                _nextSquare = _pieceMoves.next();
-                if (_nextSquare == null) {
-                    _queenCount++;
-                    if (hasNext()) {
-                        _start = _startingSquares.next();
-                        startFinder();
-                    } else {
-                        _start = null;
-                        return;
+        private Move findNext() {
+            while (true) {
+                if (_spearSteps < _spearLength) {
+                    _spearSteps++;
+                    return Move.mv(Square.sq(_start), Square.sq(_to),
+                        Square.sq(_to
+                            + _spearSteps * Bitboards.DELTA[_spearDir]));
+                } else if (_spearDir < 7) {
+                    _spearDir++;
+                    _spearSteps = 0;
+                    _spearLength = Bitboards.rayLength(_to, _spearDir,
+                        _spearOccLo, _spearOccHi);
+                } else if (_steps < _length) {
+                    _steps++;
+                    _to = _start + _steps * Bitboards.DELTA[_dir];
+                    _spearDir = -1;
+                    _spearSteps = _spearLength = 0;
+                } else if (_dir < 7) {
+                    _dir++;
+                    _steps = 0;
+                    _length = Bitboards.rayLength(_start, _dir,
+                        _occLo, _occHi);
+                } else {
+                    _start = Bitboards.first(_queensLo, _queensHi);
+                    if (_start < 0) {
+                        return null;
                     }
+                    _queensLo &= ~Bitboards.lo(_start);
+                    _queensHi &= ~Bitboards.hi(_start);
+                    _spearOccLo = _occLo & ~Bitboards.lo(_start);
+                    _spearOccHi = _occHi & ~Bitboards.hi(_start);
+                    _dir = -1;
+                    _steps = _length = 0;
                 }
-                _spearThrows = reachableFrom(_nextSquare, _start);
             }
         }
 
-        /**
-         * Advance so that the next valid Move is
-         * _start-_nextSquare(sp), where sp is the next value of
-         * _spearThrows.
-         */
-        private void toNext() {
-            _nextSpear = _spearThrows.next();
-            while (!_spearThrows.hasNext()) {
-                _nextSquare = _pieceMoves.next();
-                while (!_pieceMoves.hasNext()) {
-                    _queenCount++;
-                    if (hasNext()) {
-                        _start = _startingSquares.next();
-                        startFinder();
-                    } else {
-                        _start = null;
-                        return;
-                    }
-                }
-                _spearThrows = reachableFrom(_nextSquare, _start);
-                _nextSpear = _spearThrows.next();
-            }
-        }
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
+        /** Queens of the side being iterated not yet started. */
+        private long _queensLo, _queensHi;
 
-        /** Current starting square. */
-        private Square _start;
+        /** Occupied squares. */
+        private long _occLo, _occHi;
 
-        /** Remaining starting squares to consider. */
-        private Iterator<Square> _startingSquares;
+        /** Occupied squares once the current queen has left _start. */
+        private long _spearOccLo, _spearOccHi;
 
-        /** Current piece's new position. */
-        private Square _nextSquare;
+        /** Index of the current starting square. */
+        private int _start;
 
-        /** Remaining moves from _start to consider. */
-        private Iterator<Square> _pieceMoves;
+        /** Index of the current piece's new position. */
+        private int _to;
 
-        /** Remaining spear throws from _piece to consider. */
-        private Iterator<Square> _spearThrows;
+        /** Direction, distance and number of reachable squares for the
+         *  piece move. */
+        private int _dir, _steps, _length;
 
-        /**
-         * Square for next spear.
-         */
-        private Square _nextSpear;
+        /** Direction, distance and number of reachable squares for the
+         *  spear throw. */
+        private int _spearDir, _spearSteps, _spearLength;
 
-        /**
-         * Integer for queen count.
-         */
-        private int _queenCount;
+        /** The next Move to be delivered, or null if none. */
+        private Move _next;
     }
 
     @Override
@@ -591,24 +998,16 @@ class Board {
         for (int row = 9; row >= 0; row--) {
             stringBuild  = stringBuild + "  ";
             for (int col = 0; col < 10; col++) {
-                if (_pieceArray[col][row] != WHITE
-                        && _pieceArray[col][row] != BLACK
-                        && _pieceArray[col][row] != SPEAR) {
-                    stringBuild += " " + EMPTY.toString();
-                } else if (_pieceArray[col][row] == BLACK) {
-                    stringBuild += " " + BLACK.toString();
-                } else if (_pieceArray[col][row] == WHITE) {
-                    stringBuild += " " + WHITE.toString();
-                } else {
-                    stringBuild += " " + SPEAR.toString();
-                }
+                stringBuild += " " + get(col, row).toString();
             }
             stringBuild += "\n";
         }
         return stringBuild;
     }
 
-    /** An empty iterator for initialization. */
-    private static final Iterator<Square> NO_SQUARES =
-        Collections.emptyIterator();
+    /** Move history of a board on which no move has been made. */
+    private static final int[] NO_HISTORY = new int[0];
+
+    /** All Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
 }
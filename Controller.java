@@ -1,6 +1,7 @@
 package amazons;
 
 import java.io.PrintStream;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -64,6 +65,8 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
+        _white.stop();
+        _black.stop();
         if (_logFile != null) {
             _logFile.close();
         }
@@ -147,6 +150,9 @@ final class Controller {
         new Command(Move.MOVE_PATTERN.toString(), this::doMove),
         new Command("manual (black|white)$", this::doManual),
         new Command("auto (black|white)$", this::doAuto),
+        new Command("perft\\s+(\\d+)(\\s+hash)?$", this::doPerft),
+        new Command("divide\\s+(\\d+)(\\s+hash)?$", this::doDivide),
+        new Command("bench(?:\\s+(\\d+))?$", this::doBench),
     };
 
     /** A Matcher whose Pattern matches comments. */
@@ -178,6 +184,8 @@ final class Controller {
 
     /** Command to make a new board. */
     private void doNew(Matcher unused) {
+        _white.stop();
+        _black.stop();
         _board.init();
         _winner = null;
     }
@@ -230,6 +238,74 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
+    /** Command "perft DEPTH [hash]": print the number of move sequences
+     *  of length DEPTH from the current position, and the rate at which
+     *  they were counted.  With "hash", counts of transposed subtrees
+     *  are remembered and reused.
+     * @param mat is the perft matcher.
+     */
+    private void doPerft(Matcher mat) {
+        int depth = depthArgument(mat);
+        long start = System.nanoTime();
+        long count = perft(mat).perft(_board, depth);
+        long nanos = Math.max(1, System.nanoTime() - start);
+        System.out.printf("perft %d: %d in %d ms (%d per second)%n", depth,
+                          count, nanos / 1_000_000,
+                          (long) (count * 1e9 / nanos));
+    }
+
+    /** Command "divide DEPTH [hash]": as for perft, but print the count
+     *  for each legal move as well.
+     * @param mat is the divide matcher.
+     */
+    private void doDivide(Matcher mat) {
+        int depth = depthArgument(mat);
+        if (depth == 0) {
+            throw error("depth must be positive");
+        }
+        long total = 0;
+        for (Map.Entry<Move, Long> entry
+                 : perft(mat).divide(_board, depth).entrySet()) {
+            System.out.printf("%s: %d%n", entry.getKey(), entry.getValue());
+            total += entry.getValue();
+        }
+        System.out.printf("total: %d%n", total);
+    }
+
+    /** Command "bench [DEPTH]": search a fixed set of positions to
+     *  DEPTH (default Benchmark.BENCH_DEPTH) and print the node count,
+     *  its signature and the search rate (see Benchmark.bench).
+     * @param mat is the bench matcher.
+     */
+    private void doBench(Matcher mat) {
+        int depth = mat.group(1) == null ? Benchmark.BENCH_DEPTH
+            : depthArgument(mat);
+        if (depth == 0) {
+            throw error("depth must be positive");
+        }
+        Benchmark.bench(depth, System.out);
+    }
+
+    /** Return the depth given to the perft, divide or bench command
+     *  MAT. */
+    private int depthArgument(Matcher mat) {
+        try {
+            return Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Return a counter for the perft or divide command MAT, using all
+     *  processors and a table if MAT asks for one. */
+    private Perft perft(Matcher mat) {
+        return new Perft(Runtime.getRuntime().availableProcessors(),
+                         mat.group(2) == null ? 0 : PERFT_HASH_MEGABYTES);
+    }
+
+    /** Size of the table used by perft and divide with "hash". */
+    private static final int PERFT_HASH_MEGABYTES = 64;
+
     /** Initialize a manual player.
      * @param mat is the Manual argument.
      */
@@ -237,8 +313,10 @@ final class Controller {
         try {
             String init = mat.group(1);
             if (init.equals("white")) {
+                _white.stop();
                 _white = _manualPlayerTemplate.create(WHITE, this);
             } else if (init.equals("black")) {
+                _black.stop();
                 _black = _manualPlayerTemplate.create(BLACK, this);
             }
         } catch (IndexOutOfBoundsException excp) {
@@ -253,8 +331,10 @@ final class Controller {
         try {
             String init = mat.group(1);
             if (init.equals("white")) {
+                _white.stop();
                 _white = _autoPlayerTemplate.create(WHITE, this);
             } else if (init.equals("black")) {
+                _black.stop();
                 _black = _autoPlayerTemplate.create(BLACK, this);
             }
         } catch (IndexOutOfBoundsException excp) {
@@ -0,0 +1,477 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** Solves Amazons endgames in which the spears have separated the two
+ *  sides.  The empty squares fall into regions: sets of empty squares
+ *  connected by king steps.  A region is owned by a side if only that
+ *  side's queens are next to it, contested if queens of both sides are,
+ *  and dead if none are.  Once no region is contested and no queen is
+ *  next to an enemy queen (whose square it could enter once that queen
+ *  leaves), the board is partitioned: neither side can affect the
+ *  other, and each side will simply make as many moves as it can in its
+ *  own regions.  The side to move wins iff it can make more moves than
+ *  its opponent.
+ *
+ *  The number of moves a side can make in a region is found by an exact
+ *  search of the (one-player) move tree, which stops as soon as it finds
+ *  a line that fills the region (each move fills one square, so no line
+ *  is longer) and remembers the values of positions it has solved.  A
+ *  search that exceeds its node budget gives only a lower bound, and the
+ *  number of empty squares serves as the upper bound; often the bounds
+ *  alone decide the game.  Regions are found afresh each time by
+ *  flood fills over square masks, which take a few hundred word
+ *  operations.
+ *
+ *  A solver keeps scratch state and is therefore not thread-safe.
+ *  @author Warner Tsang
+ */
+final class EndgameSolver {
+
+    /** Region classifications returned by regionOwner: not next to any
+     *  queen, next to White's queens only, next to Black's only, and
+     *  next to both. */
+    static final int DEAD = 0, WHITE_OWNED = 1, BLACK_OWNED = 2,
+        CONTESTED = WHITE_OWNED | BLACK_OWNED;
+
+    /** Node budget per region of the searches made by winner. */
+    static final int SEARCH_BUDGET = 2000;
+
+    /** A node budget per region for bestMove that suits choosing a move
+     *  to play. */
+    static final int ROOT_BUDGET = 2_000_000;
+
+    /** The searches made by bestMove check the clock once every
+     *  CHECK_INTERVAL + 1 nodes. */
+    private static final int CHECK_INTERVAL = 0x3ff;
+
+    /** Look up regions holding a single queen in TABLEBASE, if they are
+     *  small enough, instead of searching them.  TABLEBASE may be null,
+     *  which turns this off. */
+    void setTablebase(RegionTablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the table set by setTablebase, or null. */
+    RegionTablebase tablebase() {
+        return _tablebase;
+    }
+
+    /** Forget all remembered results, as if I were new. */
+    void clear() {
+        Arrays.fill(_memoKeys, 0L);
+        Arrays.fill(_memoValues, 0);
+        _haveLast = false;
+    }
+
+    /** Find the regions of BOARD, which may then be examined with
+     *  regionLo, regionHi and regionOwner, and return how many there
+     *  are. */
+    int findRegions(Board board) {
+        long emptyLo = ~board.occupiedLo(),
+            emptyHi = ~board.occupiedHi() & Bitboards.HI_MASK;
+        long whiteLo = board.piecesLo(WHITE), whiteHi = board.piecesHi(WHITE),
+            blackLo = board.piecesLo(BLACK), blackHi = board.piecesHi(BLACK);
+        _numRegions = 0;
+        while ((emptyLo | emptyHi) != 0) {
+            int s = Bitboards.first(emptyLo, emptyHi);
+            flood(Bitboards.lo(s), Bitboards.hi(s), emptyLo, emptyHi);
+            emptyLo &= ~_floodLo;
+            emptyHi &= ~_floodHi;
+            long nLo = neighborsLo(_floodLo, _floodHi),
+                nHi = neighborsHi(_floodLo, _floodHi);
+            int owner = DEAD;
+            if ((nLo & whiteLo | nHi & whiteHi) != 0) {
+                owner |= WHITE_OWNED;
+            }
+            if ((nLo & blackLo | nHi & blackHi) != 0) {
+                owner |= BLACK_OWNED;
+            }
+            if (_numRegions == _regionOwner.length) {
+                growRegions();
+            }
+            _regionLo[_numRegions] = _floodLo;
+            _regionHi[_numRegions] = _floodHi;
+            _regionOwner[_numRegions] = owner;
+            _numRegions += 1;
+        }
+        return _numRegions;
+    }
+
+    /** Return the LO word (see Bitboards) of the squares of region K
+     *  found by the last findRegions. */
+    long regionLo(int k) {
+        return _regionLo[k];
+    }
+
+    /** Return the HI word of the squares of region K, as for regionLo. */
+    long regionHi(int k) {
+        return _regionHi[k];
+    }
+
+    /** Return the classification (DEAD, WHITE_OWNED, BLACK_OWNED or
+     *  CONTESTED) of region K found by the last findRegions. */
+    int regionOwner(int k) {
+        return _regionOwner[k];
+    }
+
+    /** Return true iff BOARD is partitioned: no region is contested, and
+     *  no queen is next to a queen of the other side (which would
+     *  contest the square it leaves when it moves). */
+    boolean partitioned(Board board) {
+        long whiteLo = board.piecesLo(WHITE), whiteHi = board.piecesHi(WHITE),
+            blackLo = board.piecesLo(BLACK), blackHi = board.piecesHi(BLACK);
+        long passLo = ~board.occupiedLo() | whiteLo,
+            passHi = (~board.occupiedHi() & Bitboards.HI_MASK) | whiteHi;
+        long areaLo = whiteLo, areaHi = whiteHi;
+        long frontierLo = areaLo, frontierHi = areaHi;
+        while ((frontierLo | frontierHi) != 0) {
+            long nLo = neighborsLo(frontierLo, frontierHi),
+                nHi = neighborsHi(frontierLo, frontierHi);
+            if ((nLo & blackLo | nHi & blackHi) != 0) {
+                return false;
+            }
+            frontierLo = nLo & passLo & ~areaLo;
+            frontierHi = nHi & passHi & ~areaHi;
+            areaLo |= frontierLo;
+            areaHi |= frontierHi;
+        }
+        return true;
+    }
+
+    /** Return the winner of BOARD with best play if BOARD is partitioned
+     *  and a search of at most SEARCH_BUDGET nodes per region decides
+     *  it, and otherwise null. */
+    Piece winner(Board board) {
+        if (_haveLast && board.key() == _lastKey) {
+            return _lastWinner;
+        }
+        Piece winner = null;
+        if (partitioned(board)) {
+            Piece mover = board.turn(), other = mover.opponent();
+            count(board, mover, SEARCH_BUDGET);
+            int moverLow = _low, moverHigh = _high;
+            count(board, other, SEARCH_BUDGET);
+            if (moverLow > _high) {
+                winner = mover;
+            } else if (moverHigh <= _low) {
+                winner = other;
+            }
+        }
+        _haveLast = true;
+        _lastKey = board.key();
+        _lastWinner = winner;
+        return winner;
+    }
+
+    /** Return the number of moves SIDE can make on BOARD, which must be
+     *  partitioned, if searches of at most BUDGET nodes per region find
+     *  it exactly, and otherwise -1. */
+    int moves(Board board, Piece side, int budget) {
+        count(board, side, budget);
+        return _low == _high ? _low : -1;
+    }
+
+    /** Return a packed move for the side to move on BOARD that keeps the
+     *  most moves for that side, or 0 if BOARD is not partitioned or the
+     *  side to move has no moves.  Each region is searched for at most
+     *  BUDGET nodes, and only until DEADLINE (a value of System.nanoTime),
+     *  although each region's first move is always tried; if that is not
+     *  enough, the move starts the longest line found. */
+    int bestMove(Board board, int budget, long deadline) {
+        if (!partitioned(board)) {
+            return 0;
+        }
+        _deadline = deadline;
+        Piece side = board.turn();
+        long occLo = board.occupiedLo(), occHi = board.occupiedHi();
+        long emptyLo = ~occLo, emptyHi = ~occHi & Bitboards.HI_MASK;
+        long queensLo = board.piecesLo(side), queensHi = board.piecesHi(side);
+        int bestGain = 0, bestMove = 0;
+        while ((queensLo | queensHi) != 0) {
+            component(queensLo, queensHi, emptyLo, emptyHi);
+            queensLo &= ~_queensLo;
+            queensHi &= ~_queensHi;
+            int empties = Bitboards.count(_floodLo, _floodHi);
+            _budget = budget;
+            _aborted = false;
+            _bestMove = 0;
+            int value = solve(occLo, occHi, _queensLo, _queensHi, empties,
+                              true);
+            if (value > bestGain) {
+                bestGain = value;
+                bestMove = _bestMove;
+            }
+        }
+        return bestMove;
+    }
+
+    /** Set _low and _high to lower and upper bounds on the number of
+     *  moves SIDE can make on the partitioned BOARD, searching each of
+     *  its regions for at most BUDGET nodes. */
+    private void count(Board board, Piece side, int budget) {
+        _deadline = Long.MAX_VALUE;
+        long occLo = board.occupiedLo(), occHi = board.occupiedHi();
+        long emptyLo = ~occLo, emptyHi = ~occHi & Bitboards.HI_MASK;
+        long queensLo = board.piecesLo(side), queensHi = board.piecesHi(side);
+        int low = 0, high = 0;
+        while ((queensLo | queensHi) != 0) {
+            component(queensLo, queensHi, emptyLo, emptyHi);
+            queensLo &= ~_queensLo;
+            queensHi &= ~_queensHi;
+            int empties = Bitboards.count(_floodLo, _floodHi);
+            _budget = budget;
+            _aborted = false;
+            int value = solve(occLo, occHi, _queensLo, _queensHi, empties,
+                              false);
+            low += value;
+            high += _aborted ? empties : value;
+        }
+        _low = low;
+        _high = high;
+    }
+
+    /** Set _queensLo, _queensHi to the queens among QUEENSLO, QUEENSHI
+     *  that share regions with the first of them or stand next to it,
+     *  directly or through other such queens, and _floodLo, _floodHi to
+     *  the empty squares (among EMPTYLO, EMPTYHI) of those regions.
+     *  Queens that touch must be solved together, since either may step
+     *  into the square the other leaves. */
+    private void component(long queensLo, long queensHi,
+                           long emptyLo, long emptyHi) {
+        int first = Bitboards.first(queensLo, queensHi);
+        long compLo = Bitboards.lo(first), compHi = Bitboards.hi(first);
+        long areaLo = 0, areaHi = 0;
+        long newLo = compLo, newHi = compHi;
+        while ((newLo | newHi) != 0) {
+            flood(newLo, newHi, emptyLo & ~areaLo, emptyHi & ~areaHi);
+            areaLo |= _floodLo;
+            areaHi |= _floodHi;
+            newLo = neighborsLo(areaLo | compLo, areaHi | compHi)
+                & queensLo & ~compLo;
+            newHi = neighborsHi(areaLo | compLo, areaHi | compHi)
+                & queensHi & ~compHi;
+            compLo |= newLo;
+            compHi |= newHi;
+        }
+        _queensLo = compLo;
+        _queensHi = compHi;
+        _floodLo = areaLo;
+        _floodHi = areaHi;
+    }
+
+    /** Set _floodLo, _floodHi to the squares among PASSLO, PASSHI that
+     *  can be reached by king steps from the squares in STARTLO, STARTHI
+     *  through squares of PASSLO, PASSHI, including those starting
+     *  squares that are in it. */
+    private void flood(long startLo, long startHi, long passLo,
+                       long passHi) {
+        long areaLo = startLo & passLo, areaHi = startHi & passHi;
+        long frontierLo = startLo, frontierHi = startHi;
+        while ((frontierLo | frontierHi) != 0) {
+            long nLo = neighborsLo(frontierLo, frontierHi),
+                nHi = neighborsHi(frontierLo, frontierHi);
+            frontierLo = nLo & passLo & ~areaLo;
+            frontierHi = nHi & passHi & ~areaHi;
+            areaLo |= frontierLo;
+            areaHi |= frontierHi;
+        }
+        _floodLo = areaLo;
+        _floodHi = areaHi;
+    }
+
+    /** Return the number of moves that can be made by the queens in
+     *  QUEENSLO, QUEENSHI alone, starting from the position with occupied
+     *  squares OCCLO, OCCHI, where EMPTIES is the number of empty squares
+     *  those queens can reach.  If TOP, sets _bestMove to the first move
+     *  of the longest line found.  Sets _aborted if more than _budget
+     *  nodes were needed or, below the top, _deadline has passed, in
+     *  which case the result is a lower bound. */
+    private int solve(long occLo, long occHi, long queensLo, long queensHi,
+                      int empties, boolean top) {
+        if (empties == 0) {
+            return 0;
+        }
+        int slot = slot(occLo, occHi, queensLo, queensHi);
+        if (!top && _memoKeys[slot] == occLo && _memoKeys[slot + 1] == occHi
+            && _memoKeys[slot + 2] == queensLo
+            && _memoKeys[slot + 3] == queensHi) {
+            return _memoValues[slot / KEY_LONGS];
+        }
+        if (!top && _tablebase != null && empties < _tablebase.maxSquares()
+            && Bitboards.count(queensLo, queensHi) == 1) {
+            flood(queensLo, queensHi, ~occLo, ~occHi & Bitboards.HI_MASK);
+            int value = _tablebase.probe(_floodLo | queensLo,
+                                         _floodHi | queensHi,
+                                         Bitboards.first(queensLo, queensHi));
+            if (value >= 0) {
+                return value;
+            }
+        }
+        if (_budget <= 0
+            || !top && (_budget & CHECK_INTERVAL) == 0
+               && System.nanoTime() > _deadline) {
+            _aborted = true;
+            return 0;
+        }
+        _budget -= 1;
+        int best = 0;
+        for (long lo = queensLo, hi = queensHi; (lo | hi) != 0;) {
+            int from = Bitboards.first(lo, hi);
+            lo &= ~Bitboards.lo(from);
+            hi &= ~Bitboards.hi(from);
+            long leftLo = occLo & ~Bitboards.lo(from),
+                leftHi = occHi & ~Bitboards.hi(from);
+            long restLo = queensLo & ~Bitboards.lo(from),
+                restHi = queensHi & ~Bitboards.hi(from);
+            for (int dir = 0; dir < 8; dir++) {
+                int delta = Bitboards.DELTA[dir];
+                int length = Bitboards.rayLength(from, dir, occLo, occHi);
+                for (int to = from + delta; length > 0;
+                     length--, to += delta) {
+                    long toLo = leftLo | Bitboards.lo(to),
+                        toHi = leftHi | Bitboards.hi(to);
+                    for (int spearDir = 0; spearDir < 8; spearDir++) {
+                        int spearDelta = Bitboards.DELTA[spearDir];
+                        int spearLength =
+                            Bitboards.rayLength(to, spearDir, leftLo, leftHi);
+                        for (int spear = to + spearDelta; spearLength > 0;
+                             spearLength--, spear += spearDelta) {
+                            int value = 1 + solve(
+                                toLo | Bitboards.lo(spear),
+                                toHi | Bitboards.hi(spear),
+                                restLo | Bitboards.lo(to),
+                                restHi | Bitboards.hi(to),
+                                empties - 1, false);
+                            if (value > best) {
+                                best = value;
+                                if (top) {
+                                    _bestMove = Move.pack(from, to, spear);
+                                }
+                                if (best == empties || _aborted) {
+                                    return remember(slot, occLo, occHi,
+                                                    queensLo, queensHi, best);
+                                }
+                            } else if (_aborted) {
+                                return best;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return remember(slot, occLo, occHi, queensLo, queensHi, best);
+    }
+
+    /** Record in memo slot SLOT that the queens QUEENSLO, QUEENSHI can
+     *  make VALUE moves from the position with occupied squares OCCLO,
+     *  OCCHI, unless the search was aborted (so that VALUE may be low).
+     *  Returns VALUE. */
+    private int remember(int slot, long occLo, long occHi, long queensLo,
+                         long queensHi, int value) {
+        if (!_aborted) {
+            _memoKeys[slot] = occLo;
+            _memoKeys[slot + 1] = occHi;
+            _memoKeys[slot + 2] = queensLo;
+            _memoKeys[slot + 3] = queensHi;
+            _memoValues[slot / KEY_LONGS] = value;
+        }
+        return value;
+    }
+
+    /** Return the index in _memoKeys of the memo slot for the queens
+     *  QUEENSLO, QUEENSHI in the position with occupied squares OCCLO,
+     *  OCCHI. */
+    private static int slot(long occLo, long occHi, long queensLo,
+                            long queensHi) {
+        long h = occLo * 0x9e3779b97f4a7c15L;
+        h = (h ^ occHi) * 0xc2b2ae3d27d4eb4fL;
+        h = (h ^ queensLo) * 0x165667b19e3779f9L;
+        h = (h ^ queensHi) * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> (Long.SIZE - MEMO_BITS)) * KEY_LONGS;
+    }
+
+    /** Return the LO word of the squares a king step away from the
+     *  squares in LO, HI. */
+    private static long neighborsLo(long lo, long hi) {
+        long result = 0;
+        for (int d = 0; d < 8; d++) {
+            result |= Bitboards.shiftLo(lo, hi, d);
+        }
+        return result;
+    }
+
+    /** Return the HI word of the squares a king step away from the
+     *  squares in LO, HI. */
+    private static long neighborsHi(long lo, long hi) {
+        long result = 0;
+        for (int d = 0; d < 8; d++) {
+            result |= Bitboards.shiftHi(lo, hi, d);
+        }
+        return result;
+    }
+
+    /** Double the capacity of the region arrays. */
+    private void growRegions() {
+        int n = 2 * _regionOwner.length;
+        _regionLo = Arrays.copyOf(_regionLo, n);
+        _regionHi = Arrays.copyOf(_regionHi, n);
+        _regionOwner = Arrays.copyOf(_regionOwner, n);
+    }
+
+    /** Table of small regions to consult, or null. */
+    private RegionTablebase _tablebase;
+
+    /** Log base 2 of the number of memo slots. */
+    private static final int MEMO_BITS = 16;
+
+    /** Longs per memo key. */
+    private static final int KEY_LONGS = 4;
+
+    /** Memo keys: occupied squares and queens, four longs per slot. */
+    private final long[] _memoKeys = new long[KEY_LONGS << MEMO_BITS];
+
+    /** Memo values: the number of moves for the key in the same slot. */
+    private final int[] _memoValues = new int[1 << MEMO_BITS];
+
+    /** Nodes left to the current solve. */
+    private int _budget;
+
+    /** Value of System.nanoTime after which the current solve stops. */
+    private long _deadline;
+
+    /** True iff the current solve ran out of nodes. */
+    private boolean _aborted;
+
+    /** First move of the longest line found by the current top-level
+     *  solve. */
+    private int _bestMove;
+
+    /** Results of count. */
+    private int _low, _high;
+
+    /** Results of flood and component. */
+    private long _floodLo, _floodHi, _queensLo, _queensHi;
+
+    /** Squares of the regions found by findRegions (see regionLo and
+     *  regionHi).  The first _numRegions entries are meaningful. */
+    private long[] _regionLo = new long[8], _regionHi = new long[8];
+
+    /** Classifications of the regions found by findRegions. */
+    private int[] _regionOwner = new int[8];
+
+    /** Number of regions found by findRegions. */
+    private int _numRegions;
+
+    /** True iff winner has been called, so that _lastKey and
+     *  _lastWinner are meaningful. */
+    private boolean _haveLast;
+
+    /** Key of the board last given to winner. */
+    private long _lastKey;
+
+    /** Result of the last call to winner. */
+    private Piece _lastWinner;
+}
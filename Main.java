@@ -19,11 +19,18 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --hash={0,1} --time={0,1}"
+                            + " --threads={0,1} --mcts --tablebase={0,1}"
+                            + " --book={0,1} --ponder --bench"
+                            + " --={0,2}",
+                            args);
         if (!options.ok()) {
-            System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
-            System.exit(1);
+            usage();
+        }
+
+        if (options.contains("--bench")) {
+            Benchmark.bench(Benchmark.BENCH_DEPTH, System.out);
+            System.exit(0);
         }
 
         List<String> files = options.get("--");
@@ -54,6 +61,16 @@ public class Main {
 
     }
 
+    /** Print a usage message and exit with error code 1. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Main [--display]"
+                           + " [--log=FILE] [--hash=MB] [--time=MS]"
+                           + " [--threads=N] [--mcts] [--tablebase=FILE]"
+                           + " [--book=FILE] [--ponder] [--bench]"
+                           + " [INPUT [OUTPUT]]");
+        System.exit(1);
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -83,6 +100,44 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        AI ai = new AI();
+        MctsAI mcts = new MctsAI();
+        try {
+            if (options.contains("--hash")) {
+                ai.setHashMegabytes(
+                    Integer.parseInt(options.getFirst("--hash")));
+            }
+            if (options.contains("--time")) {
+                long millis = Long.parseLong(options.getFirst("--time"));
+                ai.setMoveMillis(millis);
+                mcts.setMoveMillis(millis);
+            }
+            if (options.contains("--threads")) {
+                int threads = Integer.parseInt(options.getFirst("--threads"));
+                ai.setThreads(threads);
+                mcts.setThreads(threads);
+            }
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        if (options.contains("--tablebase")) {
+            try {
+                ai.setTablebase(
+                    new RegionTablebase(options.getFirst("--tablebase")));
+            } catch (IOException excp) {
+                throw error("Could not open tablebase");
+            }
+        }
+        if (options.contains("--book")) {
+            try {
+                ai.setBook(new OpeningBook(options.getFirst("--book")));
+            } catch (IOException excp) {
+                throw error("Could not open opening book");
+            }
+        }
+        ai.setPonder(options.contains("--ponder"));
+        Player autoPlayer = options.contains("--mcts") ? mcts : ai;
+
+        return new Controller(view, log, reporter, manualPlayer, autoPlayer);
     }
 }
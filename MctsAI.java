@@ -0,0 +1,627 @@
+package amazons;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search (UCT).  Each
+ *  iteration descends the search tree from the current position,
+ *  choosing at each node the child with the best upper confidence bound,
+ *  adds one new node, plays a few random moves from there, and scores
+ *  the result (a win or loss if the game ended, otherwise the territory
+ *  evaluation mapped to a winning probability).  The move finally chosen
+ *  is the most-visited one.
+ *
+ *  Amazons has up to a few thousand moves per position, so a node does
+ *  not list them all.  It grows its children by progressive widening:
+ *  the number allowed rises with the square root of the node's visits,
+ *  and each new child is the most promising (by the board's mobility
+ *  counts) of a few randomly sampled moves.  Random moves are found
+ *  from the board's occupancy masks without generating all moves, and
+ *  playouts make and undo them on a per-thread board, so they create
+ *  no objects.
+ *
+ *  With more than one thread, all threads grow the same tree.  A thread
+ *  passing through a node counts a visit with no reward ("virtual loss")
+ *  until its result comes back, which steers the other threads to other
+ *  parts of the tree.
+ *  @author Warner Tsang
+ */
+class MctsAI extends Player {
+
+    /**
+     * Default time budget per move, in milliseconds.
+     */
+    static final long DEFAULT_MOVE_MILLIS = AI.DEFAULT_MOVE_MILLIS;
+
+    /**
+     * A new MctsAI with no piece or controller (intended to produce
+     * a template).
+     */
+    MctsAI() {
+        this(null, null);
+    }
+
+    /**
+     * A new MctsAI playing PIECE under control of CONTROLLER.
+     */
+    MctsAI(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    /**
+     * A new MctsAI playing PIECE under control of CONTROLLER, with the
+     * same settings as TEMPLATE.
+     */
+    private MctsAI(Piece piece, Controller controller, MctsAI template) {
+        super(piece, controller);
+        _moveMillis = template._moveMillis;
+        _iterationLimit = template._iterationLimit;
+        _threads = template._threads;
+        _baseSeed = template._baseSeed;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MctsAI(piece, controller, this);
+    }
+
+    /**
+     * Spend at most about MILLIS milliseconds choosing each move.
+     * Returns this MctsAI.
+     */
+    MctsAI setMoveMillis(long millis) {
+        _moveMillis = millis;
+        return this;
+    }
+
+    /**
+     * Run at most LIMIT iterations per move, however much time remains.
+     * Returns this MctsAI.
+     */
+    MctsAI setIterationLimit(long limit) {
+        _iterationLimit = Math.max(1, limit);
+        return this;
+    }
+
+    /**
+     * Start the random numbers of my searches from SEED, so that runs
+     * with the same seed and iteration limit on one thread choose the
+     * same moves.  Returns this MctsAI.
+     */
+    MctsAI setSeed(long seed) {
+        _baseSeed = seed;
+        _searchers = new Searcher[0];
+        return this;
+    }
+
+    @Override
+    void reset(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Search with THREADS threads in all.  Returns this MctsAI.
+     */
+    MctsAI setThreads(int threads) {
+        _threads = Math.max(1, threads);
+        _pool = null;
+        return this;
+    }
+
+    @Override
+    String myMove() {
+        Move move = findMove(_controller.board());
+        _controller.reportMove(move);
+        _controller.reportNote("%d iterations, %d per second",
+                               iterations(), iterationsPerSecond());
+        return move.toString();
+    }
+
+    /**
+     * Return a move for the side to move in BOARD, or null if there is
+     * none.
+     */
+    @Override
+    Move findMove(Board board) {
+        long start = System.nanoTime();
+        _iterations.set(0);
+        _elapsed = 0;
+        if (board.noMoves(board.turn())) {
+            return null;
+        }
+        Node root = new Node(0, board.turn().opponent());
+        long deadline = start + _moveMillis * 1_000_000L;
+        _stop = false;
+        startHelpers(root, board, deadline);
+        searcher(0).search(root, board, deadline);
+        stopHelpers();
+        _elapsed = System.nanoTime() - start;
+        Node best = null;
+        for (int i = 0; i < root._numChildren; i++) {
+            Node child = root._children[i];
+            if (best == null || child._visits > best._visits) {
+                best = child;
+            }
+        }
+        return Move.mv(best._move);
+    }
+
+    /**
+     * Return the number of iterations run by the last findMove, in all
+     * threads.
+     */
+    long iterations() {
+        return _iterations.get();
+    }
+
+    /**
+     * Return the number of iterations run by the last findMove, each of
+     * which examines a few positions.
+     */
+    @Override
+    long nodes() {
+        return iterations();
+    }
+
+    /**
+     * Return the number of iterations per second run by the last
+     * findMove, in all threads.
+     */
+    long iterationsPerSecond() {
+        return _elapsed == 0 ? 0 : _iterations.get() * 1_000_000_000L
+            / _elapsed;
+    }
+
+    /**
+     * Start my helper threads, if I have any, growing the tree at ROOT,
+     * which represents BOARD, until DEADLINE.
+     */
+    private void startHelpers(Node root, Board board, long deadline) {
+        if (_threads <= 1) {
+            return;
+        }
+        if (_pool == null) {
+            _pool = new ForkJoinPool(_threads - 1);
+        }
+        _tasks = new ForkJoinTask<?>[_threads - 1];
+        for (int k = 0; k < _tasks.length; k++) {
+            Searcher helper = searcher(k + 1);
+            Board copy = board.snapshot();
+            _tasks[k] = _pool.submit(() ->
+                helper.search(root, copy, deadline));
+        }
+    }
+
+    /**
+     * Stop my helper threads, if any, and wait for them to finish.
+     */
+    private void stopHelpers() {
+        _stop = true;
+        if (_tasks == null) {
+            return;
+        }
+        for (ForkJoinTask<?> task : _tasks) {
+            task.join();
+        }
+        _tasks = null;
+    }
+
+    /**
+     * Return searcher number K, creating it if needed.
+     */
+    private Searcher searcher(int k) {
+        if (k >= _searchers.length) {
+            _searchers = Arrays.copyOf(_searchers, k + 1);
+        }
+        if (_searchers[k] == null) {
+            _searchers[k] = new Searcher(_baseSeed + k);
+        }
+        return _searchers[k];
+    }
+
+    /**
+     * A node of the search tree: the position reached by _move.  The
+     * statistics of a node (_visits and _reward) are guarded by its
+     * parent's monitor, and its children by its own, so that one lock
+     * covers everything read while choosing among a node's children.
+     * The statistics of the root are guarded by its own monitor.
+     */
+    private static final class Node {
+
+        /**
+         * A node reached by the packed move MOVE, made by MOVER.
+         */
+        Node(int move, Piece mover) {
+            _move = move;
+            _mover = mover;
+        }
+
+        /**
+         * Add the child reached by MOVE to me and return it.
+         */
+        Node addChild(int move) {
+            if (_numChildren == _children.length) {
+                _children = Arrays.copyOf(_children,
+                                          Math.max(4, 2 * _numChildren));
+            }
+            Node child = new Node(move, _mover.opponent());
+            _children[_numChildren] = child;
+            _numChildren += 1;
+            return child;
+        }
+
+        /**
+         * Return true iff MOVE leads to one of my children.
+         */
+        boolean hasChild(int move) {
+            for (int i = 0; i < _numChildren; i++) {
+                if (_children[i]._move == move) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The packed move leading to me (0 for the root).
+         */
+        private final int _move;
+
+        /**
+         * The side that made _move.
+         */
+        private final Piece _mover;
+
+        /**
+         * Number of iterations that have passed through me, including
+         * those still under way.
+         */
+        private int _visits;
+
+        /**
+         * Total reward, for _mover, of the iterations through me that
+         * have finished.
+         */
+        private double _reward;
+
+        /**
+         * My children; the first _numChildren entries are meaningful.
+         */
+        private Node[] _children = NO_CHILDREN;
+
+        /**
+         * Number of children.
+         */
+        private int _numChildren;
+    }
+
+    /**
+     * The state of one search thread: its board, random numbers and
+     * scratch space, reused from move to move.
+     */
+    private final class Searcher {
+
+        /**
+         * A searcher whose random numbers start from SEED.
+         */
+        Searcher(long seed) {
+            _seed = seed == 0 ? SEED : seed;
+        }
+
+        /**
+         * Run iterations on the tree at ROOT, which represents BOARD,
+         * until DEADLINE, the iteration limit, or a stop request.  The
+         * first iteration is always run, however little time there is,
+         * so that ROOT has at least one child when all threads stop.
+         */
+        void search(Node root, Board board, long deadline) {
+            _board.copy(board);
+            do {
+                if (_iterations.incrementAndGet() > _iterationLimit) {
+                    _iterations.decrementAndGet();
+                    break;
+                }
+                iterate(root);
+            } while (!_stop && System.nanoTime() < deadline);
+            _stop = true;
+        }
+
+        /**
+         * Run one iteration on the tree at ROOT, which represents
+         * _board, leaving _board as it was.
+         */
+        private void iterate(Node root) {
+            synchronized (root) {
+                root._visits += 1;
+            }
+            int depth = 0;
+            Node node = root;
+            while (_board.winner() == null) {
+                boolean added;
+                Node child;
+                synchronized (node) {
+                    int visits = 0;
+                    for (int i = 0; i < node._numChildren; i++) {
+                        visits += node._children[i]._visits;
+                    }
+                    child = null;
+                    if (node._numChildren
+                        < WIDEN_BASE * Math.sqrt(visits + 1)) {
+                        child = widen(node);
+                    }
+                    added = child != null;
+                    if (!added) {
+                        child = select(node, visits);
+                    }
+                    child._visits += 1;
+                }
+                _board.makeMove(child._move);
+                _path[depth] = child;
+                depth += 1;
+                node = child;
+                if (added) {
+                    break;
+                }
+            }
+            double white = playout();
+            for (int i = depth - 1; i >= 0; i--) {
+                Node parent = i == 0 ? root : _path[i - 1];
+                synchronized (parent) {
+                    Node child = _path[i];
+                    child._reward += child._mover == WHITE ? white : 1 - white;
+                }
+                _path[i] = null;
+                _board.undo();
+            }
+        }
+
+        /**
+         * Add a new child to NODE, whose position is on _board, and return
+         * it, or return null if sampling finds no move that is not
+         * already a child.  The child is the best, by the mobility
+         * difference it leaves, of WIDEN_SAMPLES random moves.
+         */
+        private Node widen(Node node) {
+            Piece mover = _board.turn();
+            int best = 0, bestScore = Integer.MIN_VALUE;
+            for (int k = 0; k < WIDEN_SAMPLES; k++) {
+                int move = randomMove();
+                if (move == best || node.hasChild(move)) {
+                    continue;
+                }
+                _board.makeMove(move);
+                int score = _board.mobility(mover)
+                    - _board.mobility(mover.opponent());
+                _board.undo();
+                if (score > bestScore) {
+                    best = move;
+                    bestScore = score;
+                }
+            }
+            return best == 0 ? null : node.addChild(best);
+        }
+
+        /**
+         * Return the child of NODE with the highest upper confidence
+         * bound, where VISITS is the total visits of NODE's children.
+         */
+        private Node select(Node node, int visits) {
+            double logVisits = Math.log(visits + 1);
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < node._numChildren; i++) {
+                Node child = node._children[i];
+                if (child._visits == 0) {
+                    return child;
+                }
+                double value = child._reward / child._visits
+                    + EXPLORATION * Math.sqrt(logVisits / child._visits);
+                if (value > bestValue) {
+                    best = child;
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Play up to PLAYOUT_PLIES random moves on _board and return the
+         * probability that White wins from the resulting position,
+         * leaving _board as it was.
+         */
+        private double playout() {
+            int plies;
+            for (plies = 0; plies < PLAYOUT_PLIES && _board.winner() == null;
+                 plies++) {
+                _board.makeMove(randomMove());
+            }
+            Piece winner = _board.winner();
+            double white;
+            if (winner == WHITE) {
+                white = 1;
+            } else if (winner == BLACK) {
+                white = 0;
+            } else {
+                white = 1 / (1 + Math.exp(-_evaluator.evaluate(_board)
+                                          / EVALUATION_SCALE));
+            }
+            for (; plies > 0; plies--) {
+                _board.undo();
+            }
+            return white;
+        }
+
+        /**
+         * Return a random legal move for the side to move on _board, in
+         * packed form, or 0 if there is none.  Every queen move (from and
+         * to) is equally likely, and so is every spear throw from the
+         * chosen destination.
+         */
+        private int randomMove() {
+            Piece side = _board.turn();
+            long occLo = _board.occupiedLo(), occHi = _board.occupiedHi();
+            long lo = _board.piecesLo(side), hi = _board.piecesHi(side);
+            int total = 0, n = 0;
+            for (int q = Bitboards.first(lo, hi); q >= 0;
+                 q = Bitboards.first(lo, hi)) {
+                lo &= ~Bitboards.lo(q);
+                hi &= ~Bitboards.hi(q);
+                for (int d = 0; d < 8; d++, n++) {
+                    _from[n] = q;
+                    _lengths[n] = Bitboards.rayLength(q, d, occLo, occHi);
+                    total += _lengths[n];
+                }
+            }
+            if (total == 0) {
+                return 0;
+            }
+            int r = nextInt(total), k;
+            for (k = 0; r >= _lengths[k]; k++) {
+                r -= _lengths[k];
+            }
+            int from = _from[k];
+            int to = from + (r + 1) * Bitboards.DELTA[k % 8];
+            occLo &= ~Bitboards.lo(from);
+            occHi &= ~Bitboards.hi(from);
+            total = 0;
+            for (int d = 0; d < 8; d++) {
+                _lengths[d] = Bitboards.rayLength(to, d, occLo, occHi);
+                total += _lengths[d];
+            }
+            r = nextInt(total);
+            for (k = 0; r >= _lengths[k]; k++) {
+                r -= _lengths[k];
+            }
+            return Move.pack(from, to, to + (r + 1) * Bitboards.DELTA[k]);
+        }
+
+        /**
+         * Return a pseudo-random integer uniformly distributed in
+         * [0 .. BOUND), where 0 < BOUND.
+         */
+        private int nextInt(int bound) {
+            _seed ^= _seed << 13;
+            _seed ^= _seed >>> 7;
+            _seed ^= _seed << 17;
+            return (int) (((_seed >>> 32) * bound) >>> 32);
+        }
+
+        /**
+         * My copy of the position being searched.
+         */
+        private final Board _board = new Board();
+
+        /**
+         * Evaluates positions at the ends of playouts.
+         */
+        private final TerritoryEvaluator _evaluator =
+            new TerritoryEvaluator();
+
+        /**
+         * The nodes on the path from the root in the current iteration.
+         */
+        private final Node[] _path = new Node[Bitboards.NUM_SQUARES];
+
+        /**
+         * Scratch space for randomMove: the square and ray length of
+         * each queen and direction.
+         */
+        private final int[] _from = new int[8 * 8],
+            _lengths = new int[8 * 8];
+
+        /**
+         * State of my xorshift random number generator; never 0.
+         */
+        private long _seed;
+    }
+
+    /**
+     * Exploration constant of the upper confidence bound.
+     */
+    private static final double EXPLORATION = 0.5;
+
+    /**
+     * A node with N visits to its children may have up to
+     * WIDEN_BASE * sqrt(N + 1) children.
+     */
+    private static final double WIDEN_BASE = 2;
+
+    /**
+     * Number of random moves sampled to choose each new child.
+     */
+    private static final int WIDEN_SAMPLES = 8;
+
+    /**
+     * Number of random moves played from each new node.
+     */
+    private static final int PLAYOUT_PLIES = 4;
+
+    /**
+     * Evaluation difference that makes a position about 73% (1 / (1 +
+     * e**-1)) likely to be won.
+     */
+    private static final double EVALUATION_SCALE = 400;
+
+    /**
+     * Seed of the random numbers of the first searcher.
+     */
+    private static final long SEED = 0x6d637473L;
+
+    /**
+     * An empty array of children.
+     */
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * Seed of the random numbers of my first searcher.
+     */
+    private long _baseSeed = SEED;
+
+    /**
+     * Time budget per move, in milliseconds.
+     */
+    private long _moveMillis = DEFAULT_MOVE_MILLIS;
+
+    /**
+     * Most iterations to run per move.
+     */
+    private long _iterationLimit = Long.MAX_VALUE;
+
+    /**
+     * Number of search threads, including the one calling findMove.
+     */
+    private int _threads = 1;
+
+    /**
+     * Set to ask all searchers to stop.
+     */
+    private volatile boolean _stop;
+
+    /**
+     * Number of iterations started in the current or last search.
+     */
+    private final AtomicLong _iterations = new AtomicLong();
+
+    /**
+     * Duration of the last search, in nanoseconds.
+     */
+    private long _elapsed;
+
+    /**
+     * The searchers, indexed by thread number (0 for the calling
+     * thread), created as needed.
+     */
+    private Searcher[] _searchers = new Searcher[0];
+
+    /**
+     * Runs my helper searches, or null if not yet created.
+     */
+    private ForkJoinPool _pool;
+
+    /**
+     * The searches being run by my helpers, or null if none.
+     */
+    private ForkJoinTask<?>[] _tasks;
+}
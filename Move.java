@@ -1,5 +1,7 @@
 package amazons;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -10,6 +12,12 @@ import static amazons.Square.SQ;
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Moves are created on first use.  Those whose piece move and spear
+ *  throw are both queen moves are kept in a table with one slot for
+ *  each such move, numbered compactly (see slot); the few others, which
+ *  can only be illegal, are kept in a map.  Both may be used from any
+ *  number of threads at once, as may the parsing methods.
  *  @author P. N. Hilfinger
  */
 final class Move {
@@ -38,25 +46,99 @@ final class Move {
         return _spear;
     }
 
+    /** Return the packed form of this move (see pack). */
+    int packed() {
+        return pack(_from.index(), _to.index(), _spear.index());
+    }
+
+    /** Return the packed form of the move between the squares with
+     *  indices FROM, TO and SPEAR.  A packed move holds the three square
+     *  indices in 7 bits each (21 bits in all), FROM in the low bits. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << SQUARE_BITS) | (spear << (2 * SQUARE_BITS));
+    }
+
+    /** Return the index of the square moved from in packed move MOVE. */
+    static int fromIndex(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    /** Return the index of the square moved to in packed move MOVE. */
+    static int toIndex(int move) {
+        return (move >>> SQUARE_BITS) & SQUARE_MASK;
+    }
+
+    /** Return the index of the spear's square in packed move MOVE. */
+    static int spearIndex(int move) {
+        return move >>> (2 * SQUARE_BITS);
+    }
+
+    /** Return the image of packed move MOVE under symmetry T (see
+     *  Square.transform). */
+    static int transform(int move, int t) {
+        return pack(Square.transform(fromIndex(move), t),
+                    Square.transform(toIndex(move), t),
+                    Square.transform(spearIndex(move), t));
+    }
+
+    /** Return my image under symmetry T (see Square.transform). */
+    Move transform(int t) {
+        return mv(transform(packed(), t));
+    }
+
+    /** Remove from the N packed moves in MOVES all but one of each set
+     *  of moves that are images of each other under the symmetries in
+     *  SYMMETRIES (a mask, as for Board.symmetries), keeping the order of
+     *  the rest.  Return the number of moves kept. */
+    static int distinct(int[] moves, int n, int symmetries) {
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            int move = moves[i];
+            boolean keep = true;
+            for (int t = 1; t < Square.SYMMETRIES && keep; t++) {
+                keep = (symmetries & (1 << t)) == 0
+                    || transform(move, t) >= move;
+            }
+            if (keep) {
+                moves[kept] = move;
+                kept += 1;
+            }
+        }
+        return kept;
+    }
+
+    /** Return the unique Move whose packed form is MOVE. */
+    static Move mv(int move) {
+        return mv(sq(fromIndex(move)), sq(toIndex(move)),
+                  sq(spearIndex(move)));
+    }
+
     /** Return the unique Move FROM-TO(SPEAR). */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        int slot = slot(from.index(), to.index(), spear.index());
+        if (slot < 0) {
+            return OTHER_MOVES.computeIfAbsent(
+                pack(from.index(), to.index(), spear.index()),
+                unused -> new Move(from, to, spear));
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        Move move = MOVES.get(slot);
+        if (move == null) {
+            MOVES.compareAndSet(slot, null, new Move(from, to, spear));
+            move = MOVES.get(slot);
+        }
+        return move;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
+        Matcher matcher = MOVE_PATTERN.matcher(str);
+        if (matcher.matches()) {
+            int k = matcher.group(1) != null ? 1 : 4;
+            Square from = sq(matcher.group(k)),
+                to = sq(matcher.group(k + 1)),
+                spear = sq(matcher.group(k + 2));
             if (from.isQueenMove(to) && to.isQueenMove(spear)) {
                 return mv(from, to, spear);
             }
@@ -67,29 +149,91 @@ final class Move {
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _from + "-" + _to + "(" + _spear + ")";
+            _str = str;
+        }
+        return str;
     }
 
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Return the slot in MOVES of the move between the squares with
+     *  indices FROM, TO and SPEAR, or -1 if either part of it is not a
+     *  queen move.  The moves from FROM to TO have consecutive slots,
+     *  one for each square in line with TO. */
+    private static int slot(int from, int to, int spear) {
+        int base = PAIR_SLOTS[from * NUM_SQUARES + to],
+            target = TARGETS[to * NUM_SQUARES + spear];
+        return base < 0 || target < 0 ? -1 : base + target;
+    }
+
+    /** Number of bits per square index in a packed move. */
+    private static final int SQUARE_BITS = 7;
+
+    /** Mask for one square index in a packed move. */
+    private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+    /** Number of squares on the board. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** TARGETS[S * NUM_SQUARES + T] is the position of the square with
+     *  index T among the squares in line with the square with index S
+     *  (in increasing order of index), or -1 if they are not in line. */
+    private static final int[] TARGETS = new int[NUM_SQUARES * NUM_SQUARES];
+
+    /** PAIR_SLOTS[FROM * NUM_SQUARES + TO] is the first slot in MOVES of
+     *  the moves from the square with index FROM to that with index TO,
+     *  or -1 if they are not in line. */
+    private static final int[] PAIR_SLOTS =
+        new int[NUM_SQUARES * NUM_SQUARES];
+
+    /** The Moves created whose parts are both queen moves, by slot. */
+    private static final AtomicReferenceArray<Move> MOVES;
+
+    /** The other Moves created, by packed form. */
+    private static final ConcurrentHashMap<Integer, Move> OTHER_MOVES =
+        new ConcurrentHashMap<>();
+
+    static {
+        int[] lineCounts = new int[NUM_SQUARES];
+        for (int s = 0; s < NUM_SQUARES; s++) {
+            for (int t = 0; t < NUM_SQUARES; t++) {
+                if (sq(s).isQueenMove(sq(t))) {
+                    TARGETS[s * NUM_SQUARES + t] = lineCounts[s];
+                    lineCounts[s] += 1;
+                } else {
+                    TARGETS[s * NUM_SQUARES + t] = -1;
+                }
+            }
+        }
+        int slots = 0;
+        for (int from = 0; from < NUM_SQUARES; from++) {
+            for (int to = 0; to < NUM_SQUARES; to++) {
+                if (TARGETS[from * NUM_SQUARES + to] >= 0) {
+                    PAIR_SLOTS[from * NUM_SQUARES + to] = slots;
+                    slots += lineCounts[to];
+                } else {
+                    PAIR_SLOTS[from * NUM_SQUARES + to] = -1;
+                }
+            }
+        }
+        MOVES = new AtomicReferenceArray<>(slots);
+    }
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** The printed form of a Move, or null until it is first needed.
+     *  Threads that race to set it set equal strings. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
 
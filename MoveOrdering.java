@@ -0,0 +1,179 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** Chooses the order in which a search tries the moves at each node.
+ *  The hash move (the best move recorded for the position) comes first,
+ *  then the killer moves for the node's ply (moves that recently caused
+ *  cutoffs at that ply in sibling positions), and then the rest in order
+ *  of their history score: how often their piece move (from, to) and
+ *  their spear throw (to, spear) have caused cutoffs, weighted by depth.
+ *
+ *  Moves are selected lazily: the first few are found by picking the
+ *  best remaining move, which is all that a node that is cut off early
+ *  needs, and only a node that survives that long sorts the rest.
+ *  @author Warner Tsang
+ */
+final class MoveOrdering {
+
+    /** Number of killer moves kept per ply. */
+    static final int KILLERS = 2;
+
+    /** Start a new search: forget the killer moves and age the history
+     *  scores, so that recent results count for more. */
+    void newSearch() {
+        for (int[] killers : _killers) {
+            if (killers != null) {
+                Arrays.fill(killers, 0);
+            }
+        }
+        for (int side = 0; side < 2; side++) {
+            age(_pieceHistory[side]);
+            age(_spearHistory[side]);
+        }
+    }
+
+    /** Forget all killer moves and history scores, as if I were new. */
+    void clear() {
+        newSearch();
+        for (int side = 0; side < 2; side++) {
+            Arrays.fill(_pieceHistory[side], 0);
+            Arrays.fill(_spearHistory[side], 0);
+        }
+    }
+
+    /** Prepare to deliver the NUMMOVES packed moves in MOVES for the node
+     *  at PLY, where SIDE (WHITE or BLACK) is to move, through next.
+     *  HASHMOVE, if it is among them, is delivered first. */
+    void order(int ply, Piece side, int[] moves, int numMoves,
+               int hashMove) {
+        long[] keys = keys(ply);
+        int[] killers = killers(ply);
+        int[] pieceHistory = _pieceHistory[side(side)],
+            spearHistory = _spearHistory[side(side)];
+        for (int i = 0; i < numMoves; i++) {
+            int move = moves[i];
+            int score;
+            if (move == hashMove) {
+                score = HASH_SCORE;
+            } else if (move == killers[0]) {
+                score = KILLER_SCORE;
+            } else if (move == killers[1]) {
+                score = KILLER_SCORE - 1;
+            } else {
+                score = pieceHistory[Move.fromIndex(move) * SQUARES
+                                     + Move.toIndex(move)]
+                    + spearHistory[Move.toIndex(move) * SQUARES
+                                   + Move.spearIndex(move)];
+            }
+            keys[i] = ((long) -score << Integer.SIZE) | move;
+        }
+        _sorted[ply] = false;
+    }
+
+    /** Return the Kth move (numbering from 0) to search at PLY, of the
+     *  NUMMOVES moves last given to order for that ply.  Moves must be
+     *  requested in order K = 0, 1, .... */
+    int next(int ply, int k, int numMoves) {
+        long[] keys = _keys[ply];
+        if (k < LAZY_PICKS) {
+            int best = k;
+            for (int i = k + 1; i < numMoves; i++) {
+                if (keys[i] < keys[best]) {
+                    best = i;
+                }
+            }
+            long key = keys[best];
+            keys[best] = keys[k];
+            keys[k] = key;
+        } else if (!_sorted[ply]) {
+            Arrays.sort(keys, k, numMoves);
+            _sorted[ply] = true;
+        }
+        return (int) keys[k];
+    }
+
+    /** Record that MOVE, made by SIDE, caused a cutoff at PLY in a search
+     *  with DEPTH levels remaining. */
+    void cutoff(int ply, Piece side, int move, int depth) {
+        int[] killers = killers(ply);
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+        int bonus = depth * depth;
+        int[] pieceHistory = _pieceHistory[side(side)],
+            spearHistory = _spearHistory[side(side)];
+        int p = Move.fromIndex(move) * SQUARES + Move.toIndex(move),
+            s = Move.toIndex(move) * SQUARES + Move.spearIndex(move);
+        pieceHistory[p] += bonus;
+        spearHistory[s] += bonus;
+        if (pieceHistory[p] > MAX_HISTORY || spearHistory[s] > MAX_HISTORY) {
+            age(pieceHistory);
+            age(spearHistory);
+        }
+    }
+
+    /** Return the index into the history tables for SIDE. */
+    private static int side(Piece side) {
+        return side == Piece.WHITE ? 0 : 1;
+    }
+
+    /** Halve all entries of HISTORY. */
+    private static void age(int[] history) {
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+    }
+
+    /** Return the sort keys for PLY, creating them if needed. */
+    private long[] keys(int ply) {
+        if (ply >= _keys.length) {
+            int n = Math.max(ply + 1, 2 * _keys.length);
+            _keys = Arrays.copyOf(_keys, n);
+            _sorted = Arrays.copyOf(_sorted, n);
+            _killers = Arrays.copyOf(_killers, n);
+        }
+        if (_keys[ply] == null) {
+            _keys[ply] = new long[Board.MAX_MOVES];
+            _killers[ply] = new int[KILLERS];
+        }
+        return _keys[ply];
+    }
+
+    /** Return the killer moves for PLY. */
+    private int[] killers(int ply) {
+        keys(ply);
+        return _killers[ply];
+    }
+
+    /** Number of moves found by selection before sorting the rest. */
+    private static final int LAZY_PICKS = 8;
+
+    /** Number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Ordering scores of hash moves and first killer moves. */
+    private static final int HASH_SCORE = Integer.MAX_VALUE,
+        KILLER_SCORE = HASH_SCORE - 1;
+
+    /** Largest history score before all are halved.  Twice this is
+     *  still less than KILLER_SCORE - 1. */
+    private static final int MAX_HISTORY = 1 << 28;
+
+    /** _keys[P][I] is the negated ordering score of the Ith move at ply P
+     *  in the high word and the packed move in the low word, so that
+     *  increasing keys give decreasing scores. */
+    private long[][] _keys = new long[0][];
+
+    /** _sorted[P] is true iff the rest of _keys[P] has been sorted. */
+    private boolean[] _sorted = new boolean[0];
+
+    /** Killer moves by ply, most recent first. */
+    private int[][] _killers = new int[0][];
+
+    /** History scores of piece moves (FROM * SQUARES + TO) and spear
+     *  throws (TO * SQUARES + SPEAR), for each side. */
+    private final int[][] _pieceHistory = new int[2][SQUARES * SQUARES],
+        _spearHistory = new int[2][SQUARES * SQUARES];
+}
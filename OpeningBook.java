@@ -0,0 +1,212 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A table of moves to play in the opening, keyed by position (see
+ *  Board.canonicalKey, so that symmetric positions share one entry).
+ *  A book is built offline (see build and main) by searching every
+ *  position in the tree of likely openings, and read through a
+ *  memory-mapped file, so that finding a book move costs a binary
+ *  search and every process using the same file shares one copy of it
+ *  in memory.
+ *
+ *  The file holds a header (MAGIC, VERSION and the number of entries)
+ *  followed by the entries in increasing order of key.  Each entry is
+ *  the key (a long), the packed move (see Move.pack) and the value the
+ *  search gave it, positive when good for White (ints).  The move is
+ *  given for the image of the position under its canonical transform
+ *  (see Board.canonicalTransform), and must be mapped back by the
+ *  inverse transform.
+ *  @author Warner Tsang
+ */
+final class OpeningBook {
+
+    /** Depth, in plies, of books built with no explicit depth. */
+    static final int DEFAULT_PLIES = 3;
+
+    /** Number of replies followed from each position in books built with
+     *  no explicit width. */
+    static final int DEFAULT_WIDTH = 4;
+
+    /** A book read from the file at PATH.  Throws IOException if it
+     *  cannot be read or is not a book. */
+    OpeningBook(String path) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                channel.size());
+        }
+        if (_data.capacity() < HEADER_BYTES || _data.getInt(0) != MAGIC
+            || _data.getInt(4) != VERSION) {
+            throw new IOException("not an opening book: " + path);
+        }
+        _size = _data.getInt(8);
+        if (_data.capacity() < HEADER_BYTES + (long) _size * ENTRY_BYTES) {
+            throw new IOException("truncated opening book: " + path);
+        }
+    }
+
+    /** Return the number of positions I hold. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the entry for the position with canonical key KEY, or 0
+     *  if there is none.  Decode the result with move and score. */
+    long probe(long key) {
+        int low = 0, high = _size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int at = HEADER_BYTES + mid * ENTRY_BYTES;
+            int cmp = Long.compare(_data.getLong(at), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return _data.getLong(at + Long.BYTES);
+            }
+        }
+        return 0;
+    }
+
+    /** Return the packed move in entry ENTRY. */
+    static int move(long entry) {
+        return (int) (entry >>> Integer.SIZE);
+    }
+
+    /** Return the value in entry ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Write to PATH a book of the moves AI chooses in all positions
+     *  fewer than PLIES plies from the initial position in which, at
+     *  each ply, one of the WIDTH moves that look best (always including
+     *  the one AI chooses) has been played.  Reports each position
+     *  searched to LOG, if it is non-null. */
+    static void build(AI ai, int plies, int width, String path,
+                      PrintStream log) throws IOException {
+        Board board = new Board();
+        Map<Long, Long> entries = new TreeMap<>();
+        expand(board, ai, plies, width, entries, log);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Long> entry : entries.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+    }
+
+    /** Build a book from the command line: ARGS are the output file and,
+     *  optionally, the depth in plies, the number of replies followed
+     *  from each position and the time allowed for each search in
+     *  milliseconds. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: java amazons.OpeningBook FILE"
+                               + " [PLIES [WIDTH [MS]]]");
+            System.exit(1);
+        }
+        int plies = args.length > 1 ? Integer.parseInt(args[1])
+            : DEFAULT_PLIES;
+        int width = args.length > 2 ? Integer.parseInt(args[2])
+            : DEFAULT_WIDTH;
+        AI ai = new AI()
+            .setThreads(Runtime.getRuntime().availableProcessors());
+        if (args.length > 3) {
+            ai.setMoveMillis(Long.parseLong(args[3]));
+        }
+        long start = System.nanoTime();
+        build(ai, plies, width, args[0], System.out);
+        OpeningBook book = new OpeningBook(args[0]);
+        System.out.printf("%d positions in %d ms%n", book.size(),
+                          (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Add to ENTRIES (keyed by position) the move AI chooses in BOARD
+     *  and, if PLIES > 1, the book for PLIES - 1 plies after each of the
+     *  WIDTH best-looking moves, reporting to LOG if it is non-null.
+     *  Positions already in ENTRIES, which can be reached by more than
+     *  one order of moves or be symmetric to another, are not searched
+     *  again. */
+    private static void expand(Board board, AI ai, int plies, int width,
+                               Map<Long, Long> entries,
+                               PrintStream log) {
+        int t = board.canonicalTransform();
+        long key = board.key(t);
+        if (plies == 0 || board.winner() != null
+            || entries.containsKey(key)) {
+            return;
+        }
+        Move best = ai.findMove(board);
+        entries.put(key, ((long) Move.transform(best.packed(), t)
+                          << Integer.SIZE) | (ai.score() & 0xffffffffL));
+        if (log != null) {
+            log.printf("%d: %s %d%n", entries.size(), best, ai.score());
+        }
+        if (plies == 1) {
+            return;
+        }
+        for (int move : candidates(board, best.packed(), width)) {
+            board.makeMove(move);
+            expand(board, ai, plies - 1, width, entries, log);
+            board.undo();
+        }
+    }
+
+    /** Return the packed move BEST and the WIDTH - 1 other moves from
+     *  BOARD after which the side to move is best off by static
+     *  evaluation, leaving out moves symmetric to those chosen. */
+    private static int[] candidates(Board board, int best, int width) {
+        TerritoryEvaluator evaluator = new TerritoryEvaluator();
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = Move.distinct(moves, board.legalMoves(moves),
+                              board.symmetries());
+        long[] ranked = new long[n];
+        int sense = board.turn() == Piece.WHITE ? 1 : -1;
+        for (int k = 0; k < n; k++) {
+            board.makeMove(moves[k]);
+            int value = moves[k] == best ? Integer.MAX_VALUE
+                : sense * evaluator.evaluate(board);
+            board.undo();
+            ranked[k] = ((long) -value << Integer.SIZE) | moves[k];
+        }
+        Arrays.sort(ranked);
+        int[] result = new int[Math.min(width, n)];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = (int) ranked[k];
+        }
+        return result;
+    }
+
+    /** Identifies book files ("AMOB"). */
+    private static final int MAGIC = 0x414d4f42;
+
+    /** Version of the file layout. */
+    private static final int VERSION = 2;
+
+    /** Bytes in the header and in each entry. */
+    private static final int HEADER_BYTES = 12, ENTRY_BYTES = 2 * Long.BYTES;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _data;
+
+    /** Number of entries. */
+    private final int _size;
+}
@@ -0,0 +1,181 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Counts of the positions reachable from a position in a given number
+ *  of plies ("perft"), for checking move generation against known
+ *  counts and for measuring its raw speed.  The root moves are divided
+ *  among the threads of a fork-join pool, each counting its subtrees
+ *  with legalMoves(int[]) on its own copy of the board; at the last
+ *  ply, the moves are counted (see Board.countLegalMoves) but neither
+ *  made nor generated.
+ *
+ *  Counts of subtrees may also be remembered in a table keyed by
+ *  position hash (see Board.key), shared by all threads without
+ *  locking in the same way as TranspositionTable, so that subtrees
+ *  reached by transposition are counted only once.  A position must be
+ *  remembered with the depth it was counted to, since its count
+ *  depends on it.
+ *  @author Warner Tsang
+ */
+final class Perft {
+
+    /** A counter using THREADS threads (at least one) and, if
+     *  HASHMEGABYTES is positive, a table of that many megabytes. */
+    Perft(int threads, int hashMegabytes) {
+        _threads = Math.max(1, threads);
+        if (hashMegabytes > 0) {
+            long slots = Long.highestOneBit(
+                hashMegabytes * (1L << 20) / (ENTRY_LONGS * Long.BYTES));
+            slots = Math.min(slots, MAX_SLOTS);
+            _table = new long[(int) slots * ENTRY_LONGS];
+            _mask = (int) slots - 1;
+        } else {
+            _table = null;
+            _mask = 0;
+        }
+    }
+
+    /** Return the number of move sequences of length DEPTH from BOARD,
+     *  which is left unchanged. */
+    long perft(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long total = 0;
+        for (long count : divide(board, depth).values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Return the number of move sequences of length DEPTH >= 1 from
+     *  BOARD, which is left unchanged, that begin with each legal move,
+     *  in the order of legalMoves. */
+    Map<Move, Long> divide(Board board, int depth) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(moves);
+        ForkJoinPool pool = new ForkJoinPool(_threads);
+        Map<Move, Long> result = new LinkedHashMap<>();
+        try {
+            List<ForkJoinTask<Long>> tasks = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Board copy = board.snapshot();
+                copy.makeMove(moves[i]);
+                tasks.add(pool.submit(
+                    () -> new Counter().count(copy, depth - 1)));
+            }
+            for (int i = 0; i < n; i++) {
+                result.put(Move.mv(moves[i]), tasks.get(i).join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** Counts subtrees on one thread, with its own move buffers. */
+    private final class Counter {
+
+        /** Return the number of move sequences of length DEPTH from
+         *  BOARD, which is left unchanged. */
+        long count(Board board, int depth) {
+            if (depth == 0) {
+                return 1;
+            }
+            if (depth == 1) {
+                return board.countLegalMoves(board.turn());
+            }
+            long key = board.key();
+            long stored = probe(key, depth);
+            if (stored >= 0) {
+                return stored;
+            }
+            int[] moves = buffer(depth);
+            int n = board.legalMoves(moves);
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                board.makeMove(moves[i]);
+                total += count(board, depth - 1);
+                board.undo();
+            }
+            store(key, depth, total);
+            return total;
+        }
+
+        /** Return the move buffer for subtrees of depth DEPTH. */
+        private int[] buffer(int depth) {
+            if (depth >= _buffers.length) {
+                _buffers = Arrays.copyOf(_buffers, depth + 1);
+            }
+            if (_buffers[depth] == null) {
+                _buffers[depth] = new int[Board.MAX_MOVES];
+            }
+            return _buffers[depth];
+        }
+
+        /** Move buffers, indexed by subtree depth. */
+        private int[][] _buffers = new int[0][];
+    }
+
+    /** Return the count stored for the position with key KEY searched
+     *  to depth DEPTH, or -1 if there is none. */
+    private long probe(long key, int depth) {
+        if (_table == null) {
+            return -1;
+        }
+        int slot = slot(key);
+        long data = _table[slot + 1];
+        if (data != 0 && (_table[slot] ^ data) == key
+            && (data & DEPTH_MASK) == depth) {
+            return data >>> DEPTH_BITS;
+        }
+        return -1;
+    }
+
+    /** Record that the position with key KEY has COUNT move sequences of
+     *  length DEPTH. */
+    private void store(long key, int depth, long count) {
+        if (_table == null) {
+            return;
+        }
+        int slot = slot(key);
+        long data = count << DEPTH_BITS | depth;
+        _table[slot] = key ^ data;
+        _table[slot + 1] = data;
+    }
+
+    /** Return the index in _table of the slot for KEY. */
+    private int slot(long key) {
+        return ((int) (key ^ (key >>> 32)) & _mask) * ENTRY_LONGS;
+    }
+
+    /** Longs per table entry: the key exclusive-or'ed with the data, and
+     *  the data (the count in the high bits and the depth in the low
+     *  DEPTH_BITS). */
+    private static final int ENTRY_LONGS = 2;
+
+    /** Number of bits of an entry's data that hold the depth. */
+    private static final int DEPTH_BITS = 8;
+
+    /** Mask for the depth in an entry's data. */
+    private static final long DEPTH_MASK = (1 << DEPTH_BITS) - 1;
+
+    /** Largest number of entries that fits in one array. */
+    private static final long MAX_SLOTS = 1L << 29;
+
+    /** Number of threads. */
+    private final int _threads;
+
+    /** Table of remembered counts, or null if none. */
+    private final long[] _table;
+
+    /** Mask selecting a slot number from a hash. */
+    private final int _mask;
+}
@@ -36,6 +36,32 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return a move for the side to move in BOARD, found without
+     *  consulting my controller, or null if there is none or I cannot
+     *  choose moves that way (as here; automated players override
+     *  this). */
+    Move findMove(Board board) {
+        return null;
+    }
+
+    /** Return the number of positions examined by my last findMove. */
+    long nodes() {
+        return 0;
+    }
+
+    /** Stop any work I am doing in the background and wait for it to
+     *  finish, before I am discarded or my board is reset.  Does nothing
+     *  here; players that think on the opponent's time override this. */
+    void stop() {
+    }
+
+    /** Forget what I have learned from the positions given to me so
+     *  far, so that my later choices depend only on the positions given
+     *  to me from now on and, if I choose at random, on SEED.  Does
+     *  nothing here; players that keep such state override this. */
+    void reset(long seed) {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
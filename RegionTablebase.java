@@ -0,0 +1,300 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static amazons.Piece.*;
+
+/** A table of the number of moves a lone queen can make in a small
+ *  enclosed region, for every region shape up to some size and every
+ *  placement of the queen in it.  The table is built offline (see main)
+ *  and read through a memory-mapped file, so that looking up a region
+ *  costs a binary search and every process using the same file shares
+ *  one copy of it in memory.
+ *
+ *  A region is identified by its squares, including the queen's, moved
+ *  as far as possible toward a1.  Such a region of at most MAX_SQUARES
+ *  squares fits in an 8 x 8 grid, and is encoded as a 64-bit mask with
+ *  bit 8 * ROW + COL for the square in column COL and row ROW of the
+ *  grid.  The queen's square is encoded the same way, as a bit number.
+ *
+ *  The file holds a header (MAGIC, VERSION, the largest region size and
+ *  the number of entries) followed by the entries in increasing order
+ *  of shape and then queen square.  Each entry is the shape (a long)
+ *  and an int holding the queen square in its upper bits and the number
+ *  of moves in its low 8 bits.
+ *  @author Warner Tsang
+ */
+final class RegionTablebase {
+
+    /** Largest region size a table can hold. */
+    static final int MAX_SQUARES = 8;
+
+    /** Region size of tables built with no explicit size. */
+    static final int DEFAULT_SQUARES = 7;
+
+    /** A table read from the file at PATH.  Throws IOException if it
+     *  cannot be read or is not a table. */
+    RegionTablebase(String path) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            _data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                channel.size());
+        }
+        if (_data.capacity() < HEADER_BYTES || _data.getInt(0) != MAGIC
+            || _data.getInt(4) != VERSION) {
+            throw new IOException("not a region tablebase: " + path);
+        }
+        _maxSquares = _data.getInt(8);
+        _size = _data.getInt(12);
+        if (_data.capacity() < HEADER_BYTES + (long) _size * ENTRY_BYTES) {
+            throw new IOException("truncated region tablebase: " + path);
+        }
+    }
+
+    /** Return the size of the largest regions I hold. */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /** Return the number of entries I hold. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of moves a lone queen on square QUEEN can make
+     *  in the region (including QUEEN) whose squares are REGIONLO,
+     *  REGIONHI (see Bitboards), or -1 if I do not hold the region. */
+    int probe(long regionLo, long regionHi, int queen) {
+        int n = Bitboards.count(regionLo, regionHi);
+        if (n > _maxSquares) {
+            return -1;
+        }
+        int minRow = Board.SIZE, minCol = Board.SIZE;
+        for (long lo = regionLo, hi = regionHi; (lo | hi) != 0;) {
+            int s = Bitboards.first(lo, hi);
+            lo &= ~Bitboards.lo(s);
+            hi &= ~Bitboards.hi(s);
+            minRow = Math.min(minRow, s / Board.SIZE);
+            minCol = Math.min(minCol, s % Board.SIZE);
+        }
+        long shape = 0;
+        for (long lo = regionLo, hi = regionHi; (lo | hi) != 0;) {
+            int s = Bitboards.first(lo, hi);
+            lo &= ~Bitboards.lo(s);
+            hi &= ~Bitboards.hi(s);
+            if (s / Board.SIZE - minRow >= GRID
+                || s % Board.SIZE - minCol >= GRID) {
+                return -1;
+            }
+            shape |= 1L << gridBit(s, minRow, minCol);
+        }
+        return probe(shape, gridBit(queen, minRow, minCol));
+    }
+
+    /** Return the number of moves a lone queen on grid square QUEEN can
+     *  make in the region SHAPE, both encoded as described above, or -1
+     *  if I do not hold the region. */
+    int probe(long shape, int queen) {
+        int low = 0, high = _size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int at = HEADER_BYTES + mid * ENTRY_BYTES;
+            long midShape = _data.getLong(at);
+            int cmp = Long.compare(midShape, shape);
+            if (cmp == 0) {
+                cmp = Integer.compare(_data.getInt(at + Long.BYTES)
+                                      >>> VALUE_BITS, queen);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return _data.getInt(at + Long.BYTES) & VALUE_MASK;
+            }
+        }
+        return -1;
+    }
+
+    /** Write to PATH a table of all regions of at most MAXSQUARES
+     *  squares (at most MAX_SQUARES). */
+    static void generate(int maxSquares, String path) throws IOException {
+        if (maxSquares < 1 || maxSquares > MAX_SQUARES) {
+            throw new IllegalArgumentException("bad region size: "
+                                               + maxSquares);
+        }
+        EndgameSolver solver = new EndgameSolver();
+        Board board = new Board();
+        List<long[]> entries = new ArrayList<>();
+        long[] shapes = { 1L };
+        for (int n = 1; n <= maxSquares; n++) {
+            for (long shape : shapes) {
+                for (long q = shape; q != 0; q &= q - 1) {
+                    int queen = Long.numberOfTrailingZeros(q);
+                    place(board, shape, queen);
+                    int value = solver.moves(board, WHITE, Integer.MAX_VALUE);
+                    entries.add(new long[] { shape, queen, value });
+                }
+            }
+            if (n < maxSquares) {
+                shapes = grow(shapes);
+            }
+        }
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                     : Long.compare(a[1], b[1]));
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxSquares);
+            out.writeInt(entries.size());
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) (entry[1] << VALUE_BITS | entry[2]));
+            }
+        }
+    }
+
+    /** Build a table from the command line: ARGS are the output file and,
+     *  optionally, the largest region size (default DEFAULT_SQUARES). */
+    public static void main(String... args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java amazons.RegionTablebase FILE"
+                               + " [SQUARES]");
+            System.exit(1);
+        }
+        int n = args.length > 1 ? Integer.parseInt(args[1])
+            : DEFAULT_SQUARES;
+        long start = System.nanoTime();
+        generate(n, args[0]);
+        RegionTablebase table = new RegionTablebase(args[0]);
+        System.out.printf("%d entries for regions of up to %d squares"
+                          + " in %d ms%n", table.size(), n,
+                          (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Set BOARD to hold spears everywhere but the squares of SHAPE
+     *  (placed at a1), with a white queen on its grid square QUEEN. */
+    private static void place(Board board, long shape, int queen) {
+        for (int s = 0; s < Bitboards.NUM_SQUARES; s++) {
+            int row = s / Board.SIZE, col = s % Board.SIZE;
+            Piece p = SPEAR;
+            if (row < GRID && col < GRID) {
+                int bit = GRID * row + col;
+                if (bit == queen) {
+                    p = WHITE;
+                } else if ((shape & (1L << bit)) != 0) {
+                    p = EMPTY;
+                }
+            }
+            board.put(p, Square.sq(s));
+        }
+    }
+
+    /** Return the distinct shapes formed by adding one square, a king
+     *  step from the others, to one of SHAPES. */
+    private static long[] grow(long[] shapes) {
+        Set<Long> result = new HashSet<>();
+        int[] rows = new int[MAX_SQUARES + 1], cols = new int[MAX_SQUARES + 1];
+        for (long shape : shapes) {
+            int n = 0;
+            for (long s = shape; s != 0; s &= s - 1, n++) {
+                int bit = Long.numberOfTrailingZeros(s);
+                rows[n] = bit / GRID;
+                cols[n] = bit % GRID;
+            }
+            for (int i = 0; i < n; i++) {
+                for (int d = 0; d < 8; d++) {
+                    int r = rows[i] + DROW[d], c = cols[i] + DCOL[d];
+                    if (r >= 0 && c >= 0 && r < GRID && c < GRID
+                        && (shape & (1L << (GRID * r + c))) != 0) {
+                        continue;
+                    }
+                    rows[n] = r;
+                    cols[n] = c;
+                    long grown = normalize(rows, cols, n + 1);
+                    if (grown != 0) {
+                        result.add(grown);
+                    }
+                }
+            }
+        }
+        long[] grown = new long[result.size()];
+        int k = 0;
+        for (long shape : result) {
+            grown[k] = shape;
+            k += 1;
+        }
+        Arrays.sort(grown);
+        return grown;
+    }
+
+    /** Return the shape of the N squares at ROWS[i], COLS[i], moved
+     *  toward a1, or 0 if it does not fit in the grid. */
+    private static long normalize(int[] rows, int[] cols, int n) {
+        int minRow = Integer.MAX_VALUE, minCol = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minRow = Math.min(minRow, rows[i]);
+            minCol = Math.min(minCol, cols[i]);
+        }
+        long shape = 0;
+        for (int i = 0; i < n; i++) {
+            int r = rows[i] - minRow, c = cols[i] - minCol;
+            if (r >= GRID || c >= GRID) {
+                return 0;
+            }
+            shape |= 1L << (GRID * r + c);
+        }
+        return shape;
+    }
+
+    /** Return the grid bit of board square S in a region whose lowest
+     *  row and column are MINROW and MINCOL. */
+    private static int gridBit(int s, int minRow, int minCol) {
+        return GRID * (s / Board.SIZE - minRow) + s % Board.SIZE - minCol;
+    }
+
+    /** Identifies table files ("AMTB"). */
+    private static final int MAGIC = 0x414d5442;
+
+    /** Version of the file layout. */
+    private static final int VERSION = 1;
+
+    /** Width and height of the grid in which shapes are encoded. */
+    private static final int GRID = 8;
+
+    /** Bytes in the header and in each entry. */
+    private static final int HEADER_BYTES = 16,
+        ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    /** Number of low bits of an entry's int that hold the move count. */
+    private static final int VALUE_BITS = 8;
+
+    /** Mask for the move count in an entry's int. */
+    private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+    /** Row and column changes of the eight king steps. */
+    private static final int[] DROW = { 1, 1, 0, -1, -1, -1, 0, 1 },
+        DCOL = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+    /** The mapped file. */
+    private final MappedByteBuffer _data;
+
+    /** Size of the largest regions held. */
+    private final int _maxSquares;
+
+    /** Number of entries. */
+    private final int _size;
+}
@@ -4,7 +4,7 @@ package amazons;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import static org.junit.Assert.*;
+import static amazons.Utils.error;
 
 
 /** Represents a position on an Amazons board.  Positions are numbered
@@ -49,20 +49,7 @@ final class Square {
 
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        if (this.col() == to.col()
-                && this.row() == to.row()) {
-            return false;
-        }
-        if (exists(to.col(), to.row())) {
-            if (this.col() == to.col()
-                    || this.row() == to.row()
-                    || Math.abs(this.col() - to.col())
-                    == Math.abs((this.row() - to.row()))) {
-                return true;
-            }
-            return false;
-        }
-        return false;
+        return DIRECTIONS[_index * NUM_SQUARES + to._index] >= 0;
     }
 
     /** Definitions of direction for queenMove. */
@@ -78,50 +65,33 @@ final class Square {
      * @param steps are steps in the direction.
      */
     Square queenMove(int dir, int steps) {
-        if (dir % 2 != 0) {
-            return sq(steps * DIR[dir][0] + this.col(),
-                    steps * DIR[dir][1] + this.row());
-        } else if (dir == 0 || dir == 4) {
-            return sq(this.col(),
-                    steps * DIR[dir][1] + this.row());
-        } else if (dir == 2 || dir == 6) {
-            return sq(steps * DIR[dir][0] + this.col(), this.row());
-        } else {
-            return null;
+        if (steps == 0) {
+            return this;
+        } else if (steps < 0) {
+            return queenMove((dir + 4) % 8, -steps);
         }
+        Square[] ray = _rays[dir];
+        return steps <= ray.length ? ray[steps - 1] : null;
+    }
+
+    /** Return the Squares reachable from me in direction DIR on an empty
+     *  board, nearest first.  The array is shared and must not be
+     *  modified. */
+    Square[] ray(int dir) {
+        return _rays[dir];
     }
 
     /** Return the direction (an int as defined in the documentation
-     *  for queenMove) of the queen move THIS-TO. */
+     *  for queenMove) of the queen move THIS-TO, or -1 if THIS-TO is not
+     *  a queen move. */
     int direction(Square to) {
-        assertTrue(isQueenMove(to));
-        if (this.col() == to.col()) {
-            if (this.row() < to.row()) {
-                return 0;
-            } else {
-                return 4;
-            }
-        } else if (this.row() == to.row()) {
-            if (this.col() < to.col()) {
-                return 2;
-            } else {
-                return 6;
-            }
-        } else {
-            if (this.col() < to.col()) {
-                if (this.row() < to.row()) {
-                    return 1;
-                } else {
-                    return 3;
-                }
-            } else {
-                if (this.row() > to.row()) {
-                    return 5;
-                } else {
-                    return 7;
-                }
-            }
-        }
+        return DIRECTIONS[_index * NUM_SQUARES + to._index];
+    }
+
+    /** Return the number of queen steps from me to TO, assuming that
+     *  THIS-TO is a queen move. */
+    int distance(Square to) {
+        return Math.max(Math.abs(_col - to._col), Math.abs(_row - to._row));
     }
 
     @Override
@@ -136,11 +106,10 @@ final class Square {
 
     /** Return the (unique) Square denoting COL ROW. */
     static Square sq(int col, int row) {
-        if (!exists(row, col)) {
+        if (!exists(col, row)) {
             return null;
         }
-        int parsed = Integer.valueOf(String.valueOf(row) + String.valueOf(col));
-        return sq(parsed);
+        return SQUARES[row * Board.SIZE + col];
     }
 
     /** Return the (unique) Square denoting the position with index INDEX. */
@@ -158,7 +127,9 @@ final class Square {
      *  standard text format for a square (e.g. a4). POSN must be a
      *  valid square designation. */
     static Square sq(String posn) {
-        assertTrue(posn.matches(SQ));
+        if (!posn.matches(SQ)) {
+            throw error("invalid square: %s", posn);
+        }
         String rowChar = posn.substring(1);
         int rowInt = Integer.parseInt(rowChar) - 1;
         Character columnChar = posn.charAt(0);
@@ -167,6 +138,31 @@ final class Square {
         return sq(columnInt, rowInt);
     }
 
+    /** Return the image of me under symmetry T (see transform(int,
+     *  int)). */
+    Square transform(int t) {
+        return SQUARES[transform(_index, t)];
+    }
+
+    /** Return the index of the image of the square with index INDEX
+     *  under symmetry T, 0 <= T < SYMMETRIES.  Symmetry T reflects the
+     *  board in its main diagonal if bit 2 of T is set, then reverses
+     *  the columns if bit 0 is set and the rows if bit 1 is set.
+     *  Symmetry 0 is the identity. */
+    static int transform(int index, int t) {
+        return TRANSFORMS[t * NUM_SQUARES + index];
+    }
+
+    /** Return the symmetry that undoes symmetry T. */
+    static int inverse(int t) {
+        return INVERSES[t];
+    }
+
+    /** Return the symmetry equivalent to applying T1 and then T2. */
+    static int compose(int t1, int t2) {
+        return COMPOSITIONS[t1 * SYMMETRIES + t2];
+    }
+
     /** Return an iterator over all Squares. */
     static Iterator<Square> iterator() {
         return SQUARE_LIST.iterator();
@@ -182,17 +178,85 @@ final class Square {
         _str = String.format("%s%d", newColumn, _row + 1);
     }
 
+    /** Number of squares on the board. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Number of symmetries of the board (rotations and reflections). */
+    static final int SYMMETRIES = 8;
+
+    /** TRANSFORMS[T * NUM_SQUARES + S] is the index of the image of the
+     *  square with index S under symmetry T. */
+    private static final byte[] TRANSFORMS =
+        new byte[SYMMETRIES * NUM_SQUARES];
+
+    /** INVERSES[T] is the inverse of symmetry T. */
+    private static final int[] INVERSES = new int[SYMMETRIES];
+
+    /** COMPOSITIONS[T1 * SYMMETRIES + T2] is T1 followed by T2. */
+    private static final int[] COMPOSITIONS =
+        new int[SYMMETRIES * SYMMETRIES];
+
     /** The cache of all created squares, by index. */
-    private static final Square[] SQUARES =
-        new Square[Board.SIZE * Board.SIZE];
+    private static final Square[] SQUARES = new Square[NUM_SQUARES];
+
+    /** DIRECTIONS[FROM * NUM_SQUARES + TO] is the direction of the queen
+     *  move from the square with index FROM to that with index TO, or -1
+     *  if there is no such queen move. */
+    private static final byte[] DIRECTIONS =
+        new byte[NUM_SQUARES * NUM_SQUARES];
 
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
     static {
-        for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
+        for (int i = NUM_SQUARES - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        Arrays.fill(DIRECTIONS, (byte) -1);
+        for (Square from : SQUARES) {
+            for (int d = 0; d < 8; d += 1) {
+                int n;
+                for (n = 1; exists(from._col + n * DIR[d][0],
+                                   from._row + n * DIR[d][1]); n += 1) {
+                    continue;
+                }
+                Square[] ray = from._rays[d] = new Square[n - 1];
+                for (int k = 0; k < ray.length; k += 1) {
+                    ray[k] = sq(from._col + (k + 1) * DIR[d][0],
+                                from._row + (k + 1) * DIR[d][1]);
+                    DIRECTIONS[from._index * NUM_SQUARES + ray[k]._index] =
+                        (byte) d;
+                }
+            }
+        }
+        int last = Board.SIZE - 1;
+        for (int t = 0; t < SYMMETRIES; t += 1) {
+            for (Square s : SQUARES) {
+                int col = (t & 4) == 0 ? s._col : s._row,
+                    row = (t & 4) == 0 ? s._row : s._col;
+                col = (t & 1) == 0 ? col : last - col;
+                row = (t & 2) == 0 ? row : last - row;
+                TRANSFORMS[t * NUM_SQUARES + s._index] =
+                    (byte) (row * Board.SIZE + col);
+            }
+        }
+        for (int t1 = 0; t1 < SYMMETRIES; t1 += 1) {
+            for (int t2 = 0; t2 < SYMMETRIES; t2 += 1) {
+                for (int t = 0; t < SYMMETRIES; t += 1) {
+                    boolean same = true;
+                    for (int i = 0; i < NUM_SQUARES && same; i += 1) {
+                        same = transform(i, t)
+                            == transform(transform(i, t1), t2);
+                    }
+                    if (same) {
+                        COMPOSITIONS[t1 * SYMMETRIES + t2] = t;
+                    }
+                }
+                if (COMPOSITIONS[t1 * SYMMETRIES + t2] == 0) {
+                    INVERSES[t1] = t2;
+                }
+            }
+        }
     }
 
     /** My index position. */
@@ -204,4 +268,8 @@ final class Square {
     /** My String denotation. */
     private final String _str;
 
+    /** The squares reachable from me in each direction on an empty
+     *  board, nearest first. */
+    private final Square[][] _rays = new Square[8][];
+
 }
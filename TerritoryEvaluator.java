@@ -0,0 +1,176 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** A static evaluator for Amazons positions based on territory.  For each
+ *  empty square it finds how many queen moves, and how many king moves,
+ *  each side needs to reach it (the "queen distance" and "king
+ *  distance"), by breadth-first searches from all of a side's queens at
+ *  once.  The searches run a level at a time on square-set masks (see
+ *  Bitboards), so they take a few hundred word operations per side.
+ *
+ *  The evaluation combines
+ *  <ul>
+ *  <li> territory: the squares each side reaches first, by queen moves
+ *       and by king moves, with ties going slightly to the side to move;
+ *  <li> position: how much closer each side is to the squares, which
+ *       rewards spreading out early in the game; and
+ *  <li> mobility: the squares each queen can reach in one move, which
+ *       the board keeps track of (see Board.mobility).
+ *  </ul>
+ *  The weights depend on the phase of the game, measured by how much of
+ *  the board is still contested: early on, position and mobility count
+ *  for much; late, once the board has split into regions, territory is
+ *  all that matters.
+ *
+ *  An evaluator keeps scratch arrays and is therefore not thread-safe;
+ *  each search thread needs its own.  Evaluation creates no objects.
+ *  @author Warner Tsang
+ */
+final class TerritoryEvaluator {
+
+    /** Return the value of BOARD, positive when White is ahead, ignoring
+     *  whether the game is over. */
+    int evaluate(Board board) {
+        long emptyLo = ~board.occupiedLo(),
+            emptyHi = ~board.occupiedHi() & Bitboards.HI_MASK;
+        long whiteLo = board.piecesLo(WHITE), whiteHi = board.piecesHi(WHITE),
+            blackLo = board.piecesLo(BLACK), blackHi = board.piecesHi(BLACK);
+        distances(whiteLo, whiteHi, emptyLo, emptyHi, true, _whiteQueen);
+        distances(blackLo, blackHi, emptyLo, emptyHi, true, _blackQueen);
+        distances(whiteLo, whiteHi, emptyLo, emptyHi, false, _whiteKing);
+        distances(blackLo, blackHi, emptyLo, emptyHi, false, _blackKing);
+
+        int tempo = board.turn() == WHITE ? TEMPO : -TEMPO;
+        int queenTerritory, kingTerritory, queenPosition, kingPosition,
+            contested;
+        queenTerritory = kingTerritory = queenPosition = kingPosition =
+            contested = 0;
+        for (int s = Bitboards.first(emptyLo, emptyHi); s >= 0;
+             s = Bitboards.first(emptyLo, emptyHi)) {
+            emptyLo &= ~Bitboards.lo(s);
+            emptyHi &= ~Bitboards.hi(s);
+            int wq = _whiteQueen[s], bq = _blackQueen[s],
+                wk = _whiteKing[s], bk = _blackKing[s];
+            queenTerritory += territory(wq, bq, tempo);
+            kingTerritory += territory(wk, bk, tempo);
+            queenPosition += 2 * (POWER[wq] - POWER[bq]);
+            kingPosition += Math.max(-UNIT,
+                Math.min(UNIT, (bk - wk) * UNIT / KING_RANGE));
+            if (wq != UNREACHED && bq != UNREACHED) {
+                contested += POWER[Math.abs(wq - bq)];
+            }
+        }
+        int mobility = board.mobility(WHITE) - board.mobility(BLACK);
+
+        int phase = Math.min(contested, OPEN_CONTESTED) * UNIT
+            / OPEN_CONTESTED;
+        return (queenTerritory * weight(QUEEN_TERRITORY, phase)
+                + kingTerritory * weight(KING_TERRITORY, phase)
+                + queenPosition * weight(QUEEN_POSITION, phase)
+                + kingPosition * weight(KING_POSITION, phase)) / UNIT
+            + mobility * weight(MOBILITY, phase);
+    }
+
+    /** Return the territory score, in UNITs, of a square that White
+     *  reaches in WHITE moves and Black in BLACK moves, where TEMPO is the
+     *  signed bonus for ties. */
+    private static int territory(int white, int black, int tempo) {
+        if (white < black) {
+            return UNIT;
+        } else if (white > black) {
+            return -UNIT;
+        } else if (white != UNREACHED) {
+            return tempo;
+        }
+        return 0;
+    }
+
+    /** Return the weight, in points per UNIT, of the term whose opening
+     *  and endgame weights are WEIGHTS[0] and WEIGHTS[1] at game phase
+     *  PHASE (UNIT for the opening, 0 for the endgame). */
+    private static int weight(int[] weights, int phase) {
+        return (weights[0] * phase + weights[1] * (UNIT - phase)) / UNIT;
+    }
+
+    /** Set DIST[S] to the number of queen moves (if QUEEN) or king moves
+     *  (otherwise) needed to reach square S from the nearest square in
+     *  SOURCELO, SOURCEHI, moving only through EMPTYLO, EMPTYHI, or to
+     *  UNREACHED if S cannot be reached. */
+    private static void distances(long sourceLo, long sourceHi,
+                                  long emptyLo, long emptyHi,
+                                  boolean queen, int[] dist) {
+        Arrays.fill(dist, UNREACHED);
+        long frontierLo = sourceLo, frontierHi = sourceHi,
+            seenLo = sourceLo, seenHi = sourceHi;
+        for (int level = 1; (frontierLo | frontierHi) != 0; level++) {
+            long nextLo = 0, nextHi = 0;
+            for (int d = 0; d < 8; d++) {
+                long lo = frontierLo, hi = frontierHi;
+                do {
+                    long stepLo = Bitboards.shiftLo(lo, hi, d) & emptyLo,
+                        stepHi = Bitboards.shiftHi(lo, hi, d) & emptyHi;
+                    lo = stepLo;
+                    hi = stepHi;
+                    nextLo |= lo;
+                    nextHi |= hi;
+                } while (queen && (lo | hi) != 0);
+            }
+            nextLo &= ~seenLo;
+            nextHi &= ~seenHi;
+            seenLo |= nextLo;
+            seenHi |= nextHi;
+            frontierLo = nextLo;
+            frontierHi = nextHi;
+            for (long lo = nextLo; lo != 0; lo &= lo - 1) {
+                dist[Long.numberOfTrailingZeros(lo)] = level;
+            }
+            for (long hi = nextHi; hi != 0; hi &= hi - 1) {
+                dist[Bitboards.LO_BITS + Long.numberOfTrailingZeros(hi)] =
+                    level;
+            }
+        }
+    }
+
+    /** Fixed-point scale of fractional terms: UNIT stands for 1. */
+    private static final int UNIT = 64;
+
+    /** Share of a tied square credited to the side to move, in UNITs. */
+    private static final int TEMPO = UNIT / 5;
+
+    /** King distance difference at which the king position term of a
+     *  square reaches its full value. */
+    private static final int KING_RANGE = 6;
+
+    /** Distance recorded for squares a side cannot reach. */
+    private static final int UNREACHED = Board.SIZE * Board.SIZE;
+
+    /** POWER[D] is UNIT / 2**D, or 0 if D is UNREACHED. */
+    private static final int[] POWER = new int[UNREACHED + 1];
+
+    static {
+        for (int d = 0; d < UNREACHED; d++) {
+            POWER[d] = d < Integer.SIZE ? UNIT >> d : 0;
+        }
+    }
+
+    /** Contested-square measure (in UNITs) at or above which a position
+     *  counts as fully in the opening phase. */
+    private static final int OPEN_CONTESTED = 40 * UNIT;
+
+    /** Opening and endgame weights of the evaluation terms. */
+    private static final int[]
+        QUEEN_TERRITORY = { 30, 100 },
+        KING_TERRITORY = { 20, 10 },
+        QUEEN_POSITION = { 40, 0 },
+        KING_POSITION = { 30, 0 },
+        MOBILITY = { 10, 0 };
+
+    /** Queen and king distances to each square for each side. */
+    private final int[] _whiteQueen = new int[UNREACHED],
+        _blackQueen = new int[UNREACHED],
+        _whiteKing = new int[UNREACHED],
+        _blackKing = new int[UNREACHED];
+}
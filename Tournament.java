@@ -0,0 +1,329 @@
+package amazons;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+/** A headless match between two engines, playing many games at once on
+ *  a pool of threads, for regression-testing engine changes.
+ *
+ *  Engines are described by specifications of the form
+ *  KIND[:KEY=VALUE,...], where KIND is ai or mcts.  The keys are ms
+ *  (time per move in milliseconds), depth (ai only), hash (ai only, in
+ *  megabytes) and iters (mcts only, iterations per move).  An engine
+ *  given a depth or iteration limit and no ms has no time limit.  Each
+ *  engine searches on one thread; the games supply the parallelism.
+ *  Each thread keeps one pair of engines, which it resets (see
+ *  Player.reset) before each game.
+ *
+ *  Games come in pairs: both games of a pair start with the same few
+ *  random moves, chosen from the pair's seed, and the engines swap
+ *  colors between them.  With depth or iteration limits in place of
+ *  time limits, a match is therefore reproducible from its seed.  An
+ *  Amazons game cannot be drawn, so each game is a win for one engine.
+ *  @author Warner Tsang
+ */
+final class Tournament {
+
+    /** Number of random moves played at the start of each game. */
+    static final int OPENING_PLIES = 2;
+
+    /** A match between the engines specified by FIRST and SECOND (see
+     *  above).  Throws IllegalArgumentException if either is invalid. */
+    Tournament(String first, String second) {
+        _specs = new String[] { first, second };
+        for (String spec : _specs) {
+            engine(spec, 0);
+        }
+        _engines = ThreadLocal.withInitial(() -> new Player[] {
+                engine(first, 0), engine(second, 0)
+            });
+    }
+
+    /** Play GAMES games (rounded up to an even number) on THREADS
+     *  threads, with the seed of pair K being SEED + K.  Reports
+     *  progress to LOG, if it is non-null, and accumulates the results
+     *  into my statistics. */
+    void run(int games, int threads, long seed, PrintStream log) {
+        int pairs = (games + 1) / 2;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        long start = System.nanoTime();
+        try {
+            List<ForkJoinTask<Game>> tasks = new ArrayList<>(2 * pairs);
+            for (int k = 0; k < 2 * pairs; k++) {
+                long gameSeed = seed + k / 2;
+                int white = k % 2;
+                tasks.add(pool.submit(() -> play(gameSeed, white)));
+            }
+            for (int k = 0; k < tasks.size(); k++) {
+                record(tasks.get(k).join());
+                if (log != null && (k + 1) % PROGRESS_INTERVAL == 0) {
+                    log.printf("%d games: %d-%d%n", _games, _wins[0],
+                               _wins[1]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        _nanos += System.nanoTime() - start;
+    }
+
+    /** Return the number of games played. */
+    int games() {
+        return _games;
+    }
+
+    /** Return the number of games won by engine E (0 or 1). */
+    int wins(int e) {
+        return _wins[e];
+    }
+
+    /** Return the number of positions examined by engine E. */
+    long nodes(int e) {
+        return _nodes[e];
+    }
+
+    /** Return the Elo rating of the first engine relative to the second
+     *  implied by the results so far (infinite if one engine has won
+     *  every game). */
+    double elo() {
+        return elo((double) _wins[0] / _games);
+    }
+
+    /** Return the lower (if LOW) or upper end of a 95% confidence
+     *  interval for elo(), from the Wilson score interval for the first
+     *  engine's expected score.  The interval stays finite on the side
+     *  away from a sweep, whose other end is infinite. */
+    double eloBound(boolean low) {
+        double score = (double) _wins[0] / _games;
+        double z2 = CONFIDENCE * CONFIDENCE / _games;
+        double center = score + z2 / 2;
+        double spread =
+            Math.sqrt(z2 * (score * (1 - score) + z2 / 4));
+        return elo((low ? center - spread : center + spread) / (1 + z2));
+    }
+
+    /** Return the half-width of a 95% confidence interval for elo(),
+     *  which is infinite if one engine has won every game. */
+    double eloMargin() {
+        return (eloBound(false) - eloBound(true)) / 2;
+    }
+
+    /** Print a summary of the results to OUT. */
+    void report(PrintStream out) {
+        String elo;
+        if (_wins[1] == 0) {
+            elo = String.format("Elo at least %+.1f", eloBound(true));
+        } else if (_wins[0] == 0) {
+            elo = String.format("Elo at most %+.1f", eloBound(false));
+        } else {
+            elo = String.format("Elo %+.1f +/- %.1f", elo(), eloMargin());
+        }
+        out.printf("%s vs %s: %d games, %d-%d, %s%n", _specs[0], _specs[1],
+                   _games, _wins[0], _wins[1], elo);
+        double seconds = _nanos / 1e9;
+        out.printf("%.2f games/s, %.1f plies/game%n", _games / seconds,
+                   (double) _plies / Math.max(1, _games));
+        for (int e = 0; e < 2; e++) {
+            out.printf("%s: %d nodes/s%n", _specs[e],
+                       (long) (_nodes[e] / Math.max(_searchNanos[e] / 1e9,
+                                                    1e-9)));
+        }
+    }
+
+    /** Run a match from the command line: ARGS are the two engine
+     *  specifications and, optionally, the number of games, the number
+     *  of threads and the seed. */
+    public static void main(String... args) {
+        if (args.length < 2 || args.length > 5) {
+            usage();
+        }
+        try {
+            Tournament match = new Tournament(args[0], args[1]);
+            int games = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_GAMES;
+            int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+            match.run(games, threads, seed, System.out);
+            match.report(System.out);
+        } catch (IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            usage();
+        }
+    }
+
+    /** Print a usage message and exit with error code 1. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Tournament ENGINE ENGINE"
+                           + " [GAMES [THREADS [SEED]]]");
+        System.err.println("  ENGINE is ai or mcts, optionally followed"
+                           + " by :KEY=VALUE,... with KEY one of");
+        System.err.println("  ms, depth, hash (ai) or ms, iters (mcts)");
+        System.exit(1);
+    }
+
+    /** The outcome of one game. */
+    private static final class Game {
+        /** Index of the winning engine. */
+        private int _winner;
+        /** Number of plies played, including the random opening. */
+        private int _plies;
+        /** Positions examined by each engine. */
+        private final long[] _nodes = new long[2];
+        /** Time spent searching by each engine, in nanoseconds. */
+        private final long[] _nanos = new long[2];
+    }
+
+    /** Play a game whose opening is chosen from SEED, with engine WHITE
+     *  (0 or 1) playing White, and return its outcome. */
+    private Game play(long seed, int white) {
+        Game game = new Game();
+        Player[] engines = _engines.get();
+        for (Player engine : engines) {
+            engine.reset(seed);
+        }
+        Board board = new Board();
+        Random random = new Random(seed);
+        int[] moves = new int[Board.MAX_MOVES];
+        while (board.winner() == null) {
+            int e = board.turn() == WHITE ? white : 1 - white;
+            if (game._plies < OPENING_PLIES) {
+                int n = board.legalMoves(moves);
+                board.makeMove(moves[random.nextInt(n)]);
+            } else {
+                long start = System.nanoTime();
+                Move move = engines[e].findMove(board);
+                game._nanos[e] += System.nanoTime() - start;
+                game._nodes[e] += engines[e].nodes();
+                board.makeMove(move);
+            }
+            game._plies += 1;
+        }
+        game._winner = board.winner() == WHITE ? white : 1 - white;
+        return game;
+    }
+
+    /** Add the outcome GAME to my statistics. */
+    private void record(Game game) {
+        _games += 1;
+        _wins[game._winner] += 1;
+        _plies += game._plies;
+        for (int e = 0; e < 2; e++) {
+            _nodes[e] += game._nodes[e];
+            _searchNanos[e] += game._nanos[e];
+        }
+    }
+
+    /** Return a new engine as specified by SPEC (see above), using SEED
+     *  for its random choices, if any. */
+    private static Player engine(String spec, long seed) {
+        String[] parts = spec.split(":", 2);
+        String[] settings =
+            parts.length > 1 ? parts[1].split(",") : new String[0];
+        try {
+            switch (parts[0]) {
+            case "ai":
+                AI ai = new AI();
+                boolean timed = false, limited = false;
+                for (String setting : settings) {
+                    String[] kv = setting.split("=", 2);
+                    long value = Long.parseLong(kv[kv.length - 1]);
+                    switch (kv[0]) {
+                    case "ms":
+                        ai.setMoveMillis(value);
+                        timed = true;
+                        break;
+                    case "depth":
+                        ai.setDepthLimit((int) value);
+                        limited = true;
+                        break;
+                    case "hash":
+                        ai.setHashMegabytes((int) value);
+                        break;
+                    default:
+                        throw error("unknown ai setting: %s", setting);
+                    }
+                }
+                if (limited && !timed) {
+                    ai.setMoveMillis(UNLIMITED_MILLIS);
+                }
+                return ai;
+            case "mcts":
+                MctsAI mcts = new MctsAI().setSeed(seed);
+                timed = limited = false;
+                for (String setting : settings) {
+                    String[] kv = setting.split("=", 2);
+                    long value = Long.parseLong(kv[kv.length - 1]);
+                    switch (kv[0]) {
+                    case "ms":
+                        mcts.setMoveMillis(value);
+                        timed = true;
+                        break;
+                    case "iters":
+                        mcts.setIterationLimit(value);
+                        limited = true;
+                        break;
+                    default:
+                        throw error("unknown mcts setting: %s", setting);
+                    }
+                }
+                if (limited && !timed) {
+                    mcts.setMoveMillis(UNLIMITED_MILLIS);
+                }
+                return mcts;
+            default:
+                throw error("unknown engine: %s", spec);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad engine setting: %s", spec);
+        }
+    }
+
+    /** Return the Elo difference implied by an expected score of SCORE. */
+    private static double elo(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /** Number of games played with no explicit count. */
+    private static final int DEFAULT_GAMES = 100;
+
+    /** Number of games between progress reports. */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    /** Standard normal quantile for a two-sided 95% interval. */
+    private static final double CONFIDENCE = 1.96;
+
+    /** A time per move, in milliseconds, that is never reached. */
+    private static final long UNLIMITED_MILLIS = Long.MAX_VALUE / 2_000_000L;
+
+    /** Specifications of the two engines. */
+    private final String[] _specs;
+
+    /** The engines of the current thread, indexed like _specs. */
+    private final ThreadLocal<Player[]> _engines;
+
+    /** Number of games played. */
+    private int _games;
+
+    /** Number of plies played in all games. */
+    private long _plies;
+
+    /** Games won by each engine. */
+    private final int[] _wins = new int[2];
+
+    /** Positions examined by each engine. */
+    private final long[] _nodes = new long[2];
+
+    /** Time spent searching by each engine, in nanoseconds. */
+    private final long[] _searchNanos = new long[2];
+
+    /** Total time spent in run, in nanoseconds. */
+    private long _nanos;
+}
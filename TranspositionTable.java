@@ -0,0 +1,153 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results keyed by Zobrist position hash
+ *  (see Board.key).  The table is held in a single long array, so it
+ *  costs no objects per entry and has no per-entry overhead.  Entries
+ *  are grouped in buckets of two: the first slot of a bucket keeps the
+ *  deepest result seen for any position hashing to it during the current
+ *  search (see newSearch), and the second slot always takes the newest
+ *  result that did not qualify for the first.
+ *
+ *  Each entry is two longs: the entry's data (see below) and the
+ *  position key exclusive-or'ed with that data.  A reader that sees a
+ *  half-written entry therefore finds a mismatched key and treats it as
+ *  a miss, which makes the table safe to share between threads without
+ *  locking.
+ *  @author Warner Tsang
+ */
+final class TranspositionTable {
+
+    /** Bound type of an entry whose score is exact. */
+    static final int EXACT = 1;
+    /** Bound type of an entry whose score is a lower bound. */
+    static final int LOWER = 2;
+    /** Bound type of an entry whose score is an upper bound. */
+    static final int UPPER = 3;
+
+    /** Size of a table created with no explicit size, in megabytes. */
+    static final int DEFAULT_MEGABYTES = 16;
+
+    /** A table of at most MEGABYTES megabytes (at least one bucket).  The
+     *  number of buckets is a power of two. */
+    TranspositionTable(int megabytes) {
+        long bytes = Math.max(1, megabytes) * (1L << 20);
+        long buckets = Long.highestOneBit(Math.max(1, bytes / BUCKET_BYTES));
+        buckets = Math.min(buckets, MAX_BUCKETS);
+        _table = new long[(int) buckets * BUCKET_LONGS];
+        _mask = (int) buckets - 1;
+    }
+
+    /** Remove all entries, leaving me as I was when created. */
+    void clear() {
+        Arrays.fill(_table, 0L);
+        _age = 0;
+    }
+
+    /** Start a new search, so that entries from earlier searches no
+     *  longer keep their slots on the strength of their depth alone.
+     *  They remain available to probe until overwritten. */
+    void newSearch() {
+        _age = (_age + 1) & AGE_MASK;
+    }
+
+    /** Return the number of entries I can hold. */
+    int capacity() {
+        return _table.length / ENTRY_LONGS;
+    }
+
+    /** Return the data stored for the position with key KEY, or 0 if
+     *  there is none.  Decode the result with score, move, depth and
+     *  bound. */
+    long probe(long key) {
+        int b = bucket(key);
+        for (int i = b; i < b + BUCKET_LONGS; i += ENTRY_LONGS) {
+            long data = _table[i];
+            if (data != 0 && (_table[i + 1] ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /** Record that searching the position with key KEY to depth DEPTH
+     *  gave SCORE, which is of type BOUND (EXACT, LOWER or UPPER), and
+     *  that the best move found was the packed move MOVE (0 if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        long data = ((long) _age << AGE_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT)
+            | ((long) move << MOVE_SHIFT)
+            | (score & 0xffffffffL);
+        int b = bucket(key);
+        long deep = _table[b];
+        if (deep == 0 || (_table[b + 1] ^ deep) == key
+            || depth(deep) <= depth || age(deep) != _age) {
+            _table[b] = data;
+            _table[b + 1] = key ^ data;
+        } else {
+            _table[b + ENTRY_LONGS] = data;
+            _table[b + ENTRY_LONGS + 1] = key ^ data;
+        }
+    }
+
+    /** Return the score in entry data DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the packed best move in entry data DATA, or 0 if none. */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Return the search depth in entry data DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /** Return the bound type in entry data DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the search generation in entry data DATA. */
+    private static int age(long data) {
+        return (int) (data >>> AGE_SHIFT);
+    }
+
+    /** Return the index in _table of the bucket for KEY. */
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & _mask) * BUCKET_LONGS;
+    }
+
+    /** Longs per entry and per bucket. */
+    private static final int ENTRY_LONGS = 2,
+        BUCKET_LONGS = 2 * ENTRY_LONGS;
+
+    /** Bytes per bucket. */
+    private static final int BUCKET_BYTES = BUCKET_LONGS * Long.BYTES;
+
+    /** Largest number of buckets that fits in one array. */
+    private static final long MAX_BUCKETS = 1L << 28;
+
+    /** Layout of entry data: score in bits 0-31, move in bits 32-52,
+     *  depth in bits 53-59, bound type in bits 60-61 and search
+     *  generation in bits 62-63. */
+    private static final int MOVE_SHIFT = 32, DEPTH_SHIFT = 53,
+        BOUND_SHIFT = 60, AGE_SHIFT = 62;
+
+    /** Masks for the move, depth, bound and generation fields. */
+    private static final int MOVE_MASK = (1 << 21) - 1, MAX_DEPTH = 0x7f,
+        BOUND_MASK = 3, AGE_MASK = 3;
+
+    /** The entries. */
+    private final long[] _table;
+
+    /** Bucket number mask: the number of buckets less 1. */
+    private final int _mask;
+
+    /** Generation of the current search. */
+    private int _age;
+}
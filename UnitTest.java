@@ -5,7 +5,13 @@ import org.junit.Test;
 import static amazons.Piece.*;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /** The suite of all JUnit tests for the amazons package.
  *  @author Warner Tsang
@@ -48,6 +54,27 @@ public class UnitTest {
         assertTrue(Square.sq(3, 0).isQueenMove(Square.sq(3, 4)));
         assertTrue(Square.sq(7, 9).isQueenMove(Square.sq(0, 2)));
     }
+
+    /**
+     * Tests the precomputed ray and direction tables.
+     */
+    @Test
+    public void testSquareTables() {
+        Square c3 = Square.sq("c3");
+        assertEquals(Square.sq("c7"), c3.queenMove(0, 4));
+        assertEquals(Square.sq("a1"), c3.queenMove(5, 2));
+        assertEquals(Square.sq("d2"), c3.queenMove(3, 1));
+        assertEquals(c3, c3.queenMove(6, 0));
+        assertEquals(null, c3.queenMove(5, 3));
+        assertEquals(null, Square.sq("j10").queenMove(1, 1));
+        assertEquals(99, c3.queenMove(1, 7).index());
+        assertEquals(2, c3.direction(Square.sq("j3")));
+        assertEquals(7, c3.direction(Square.sq("a5")));
+        assertEquals(-1, c3.direction(Square.sq("d5")));
+        assertEquals(Square.sq(4, 7), Square.sq("e8"));
+        assertEquals(74, Square.sq(4, 7).index());
+    }
+
     /**
      * Tests legal positions.
      */
@@ -151,6 +178,709 @@ public class UnitTest {
         assertEquals(null, iter.next());
     }
 
+    /**
+     * Tests that packed move generation matches legalMoves and that
+     * packed moves can be made and undone.
+     */
+    @Test
+    public void testPackedMoves() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d8"), Square.sq("i8"));
+        String before = b.toString();
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(moves);
+        Iterator<Move> iter = b.legalMoves();
+        for (int i = 0; i < n; i++) {
+            Move mv = iter.next();
+            assertEquals(mv, Move.mv(moves[i]));
+            assertEquals(moves[i], mv.packed());
+        }
+        assertEquals(null, iter.next());
+        b.makeMove(moves[n - 1]);
+        assertEquals(WHITE, b.turn());
+        assertEquals(Move.mv(moves[n - 1]).to(),
+                Square.sq(Move.toIndex(moves[n - 1])));
+        b.undo();
+        assertEquals(BLACK, b.turn());
+        assertEquals(before, b.toString());
+        assertEquals(2176, new Board().legalMoves(moves));
+    }
+
+    /**
+     * Tests that the Zobrist key depends only on the position.
+     */
+    @Test
+    public void testZobristKey() {
+        Board b = new Board();
+        long start = b.key();
+        b.makeMove(Square.sq("d1"), Square.sq("d5"), Square.sq("e6"));
+        long afterOne = b.key();
+        assertNotEquals(start, afterOne);
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("c7"));
+        b.makeMove(Square.sq("g1"), Square.sq("g5"), Square.sq("h6"));
+        long viaD1 = b.key();
+        b.undo();
+        b.undo();
+        assertEquals(afterOne, b.key());
+        b.undo();
+        assertEquals(start, b.key());
+        b.makeMove(Square.sq("g1"), Square.sq("g5"), Square.sq("h6"));
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("c7"));
+        b.makeMove(Square.sq("d1"), Square.sq("d5"), Square.sq("e6"));
+        assertEquals(viaD1, b.key());
+        assertEquals(viaD1, new Board(b).key());
+        Board c = new Board();
+        c.put(SPEAR, Square.sq("e6"));
+        c.put(SPEAR, Square.sq("h6"));
+        c.put(SPEAR, Square.sq("c7"));
+        c.put(EMPTY, Square.sq("d1"));
+        c.put(WHITE, Square.sq("d5"));
+        c.put(EMPTY, Square.sq("g1"));
+        c.put(WHITE, Square.sq("g5"));
+        c.put(EMPTY, Square.sq("a7"));
+        c.put(BLACK, Square.sq("b7"));
+        assertNotEquals(viaD1, c.key());
+        assertEquals(viaD1 ^ Zobrist.BLACK_TO_MOVE, c.key());
+    }
+
+    /**
+     * Tests storing and probing the transposition table.
+     */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.capacity());
+        long key = 0x123456789abcdefL;
+        assertEquals(0, table.probe(key));
+        int move = Move.pack(3, 33, 34);
+        table.store(key, 5, TranspositionTable.LOWER, -42, move);
+        long entry = table.probe(key);
+        assertEquals(-42, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(5, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        long other = key ^ (1L << 40) ^ (1L << 8);
+        table.store(other, 2, TranspositionTable.EXACT,
+                Integer.MAX_VALUE - 1, 0);
+        assertEquals(5, TranspositionTable.depth(table.probe(key)));
+        assertEquals(Integer.MAX_VALUE - 1,
+                TranspositionTable.score(table.probe(other)));
+        table.store(key ^ (1L << 41) ^ (1L << 9), 1,
+                TranspositionTable.UPPER, 7, 0);
+        assertEquals(5, TranspositionTable.depth(table.probe(key)));
+        assertEquals(0, table.probe(other));
+        table.newSearch();
+        table.store(other, 1, TranspositionTable.EXACT, 0, 0);
+        assertEquals(0, table.probe(key));
+        table.clear();
+        assertEquals(0, table.probe(other));
+    }
+
+    /**
+     * Tests that move ordering puts the hash move first, then the killer
+     * moves, then the rest by history, and that a new search forgets the
+     * killers and halves the history.
+     */
+    @Test
+    public void testMoveOrdering() {
+        MoveOrdering ordering = new MoveOrdering();
+        int n = 20;
+        int[] moves = new int[n];
+        for (int i = 0; i < n; i++) {
+            moves[i] = Move.pack(i, i + n, i + 2 * n);
+            ordering.cutoff(9, WHITE, moves[i], (i * 7) % n + 1);
+        }
+        ordering.cutoff(0, WHITE, moves[5], 1);
+        ordering.cutoff(0, WHITE, moves[8], 1);
+        ordering.order(0, WHITE, moves, n, moves[3]);
+        assertEquals(moves[3], ordering.next(0, 0, n));
+        assertEquals(moves[8], ordering.next(0, 1, n));
+        assertEquals(moves[5], ordering.next(0, 2, n));
+        int k = 3;
+        for (int depth = n; depth > 0; depth--) {
+            for (int i = 0; i < n; i++) {
+                if ((i * 7) % n + 1 == depth && i != 3 && i != 5 && i != 8) {
+                    assertEquals(moves[i], ordering.next(0, k, n));
+                    k += 1;
+                }
+            }
+        }
+        assertEquals(n, k);
+        ordering.newSearch();
+        ordering.cutoff(5, WHITE, moves[0], 15);
+        ordering.order(0, WHITE, moves, n, 0);
+        assertEquals(moves[0], ordering.next(0, 0, n));
+        assertEquals(moves[17], ordering.next(0, 1, n));
+        assertEquals(moves[14], ordering.next(0, 2, n));
+        assertEquals(moves[11], ordering.next(0, 3, n));
+        assertEquals(moves[8], ordering.next(0, 4, n));
+    }
+
+    /**
+     * Tests that the AI returns a legal move within its limits.
+     */
+    @Test
+    public void testAIFindsLegalMove() {
+        Board b = new Board();
+        AI ai = new AI().setDepthLimit(2).setMoveMillis(60000);
+        Move move = ai.findMove(b);
+        assertTrue(b.isLegal(move));
+        assertTrue(ai.nodes() > 2176);
+        b.makeMove(move);
+        Move quick = new AI().setMoveMillis(1).findMove(b);
+        assertTrue(b.isLegal(quick));
+    }
+
+    /**
+     * Tests that when the reply a ponder search assumes is played, the
+     * next search takes fewer nodes than one from scratch, even with a
+     * practically unlimited time per move, and that when another reply
+     * is played, the ponder search is stopped.
+     */
+    @Test
+    public void testPondering() throws InterruptedException {
+        Reporter quiet = new Reporter() {
+            @Override
+            public void reportError(String format, Object... args) {
+            }
+
+            @Override
+            public void reportNote(String format, Object... args) {
+            }
+
+            @Override
+            public void reportMove(Move move) {
+            }
+        };
+        AI template = new AI().setPonder(true).setDepthLimit(3)
+            .setMoveMillis(Long.MAX_VALUE / 2_000_000L);
+        Controller c = new Controller(new NullView(), null, quiet,
+                                      new TextPlayer(), template);
+        Board b = c.board();
+        b.copy(Benchmark.corpus()[2 * Benchmark.POSITIONS_PER_PHASE]);
+        AI white = (AI) template.create(b.turn(), c);
+        b.makeMove(Move.mv(white.myMove()));
+        Move expected = white.ponderMove();
+        assertNotNull(expected);
+        while (white.pondering()) {
+            Thread.sleep(1);
+        }
+        b.makeMove(expected);
+        String position = b.toString();
+        Move move = white.findMove(b);
+        assertTrue(b.isLegal(move));
+        assertEquals(position, b.toString());
+        AI cold = new AI().setDepthLimit(3).setMoveMillis(60000);
+        cold.findMove(b);
+        assertTrue(white.nodes() < cold.nodes());
+        b.makeMove(move);
+
+        AI black = (AI) new AI().setPonder(true).setMoveMillis(500)
+            .create(b.turn(), c);
+        b.makeMove(Move.mv(black.myMove()));
+        expected = black.ponderMove();
+        assertNotNull(expected);
+        assertTrue(black.pondering());
+        Iterator<Move> replies = b.legalMoves();
+        Move reply = replies.next();
+        if (reply.equals(expected)) {
+            reply = replies.next();
+        }
+        b.makeMove(reply);
+        long start = System.nanoTime();
+        assertTrue(b.isLegal(black.findMove(b)));
+        assertFalse(black.pondering());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        black.stop();
+        white.stop();
+        assertNull(black.ponderMove());
+        assertNull(white.ponderMove());
+    }
+
+    /**
+     * Tests that a tournament plays paired games and that its results
+     * depend only on its seed, not on how many threads play them.
+     */
+    @Test
+    public void testTournament() {
+        Tournament one = new Tournament("ai:depth=1", "mcts:iters=50");
+        one.run(3, 1, 5, null);
+        Tournament two = new Tournament("ai:depth=1", "mcts:iters=50");
+        two.run(4, 3, 5, null);
+        assertEquals(4, one.games());
+        assertEquals(4, one.wins(0) + one.wins(1));
+        assertEquals(one.wins(0), two.wins(0));
+        assertEquals(one.nodes(0), two.nodes(0));
+        assertEquals(one.nodes(1), two.nodes(1));
+        Tournament sweep = new Tournament("ai:depth=1", "mcts:iters=5");
+        sweep.run(2, 1, 1, null);
+        assertEquals(2, sweep.wins(0));
+        assertTrue(Double.isInfinite(sweep.eloMargin()));
+        assertFalse(Double.isNaN(sweep.eloBound(true)));
+        assertFalse(Double.isInfinite(sweep.eloBound(true)));
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        sweep.report(new PrintStream(report));
+        assertFalse(report.toString().contains("NaN"));
+        try {
+            new Tournament("ai:iters=5", "mcts");
+            fail("bad engine accepted");
+        } catch (IllegalArgumentException excp) {
+            assertTrue(excp.getMessage().contains("iters"));
+        }
+    }
+
+    /**
+     * Tests that the benchmark corpus is the same every time and holds
+     * only unfinished positions.
+     */
+    @Test
+    public void testBenchmarkCorpus() {
+        Board[] corpus = Benchmark.corpus(), again = Benchmark.corpus();
+        assertEquals(Benchmark.PHASE_PLIES.length
+                     * Benchmark.POSITIONS_PER_PHASE, corpus.length);
+        for (int k = 0; k < corpus.length; k++) {
+            assertNull(corpus[k].winner());
+            assertEquals(corpus[k].key(), again[k].key());
+        }
+    }
+
+    /**
+     * Tests move generation against the known counts of move sequences
+     * from the initial position.
+     */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        String position = b.toString();
+        assertEquals(1, new Perft(1, 0).perft(b, 0));
+        assertEquals(2176, new Perft(1, 0).perft(b, 1));
+        assertEquals(4307152, new Perft(2, 0).perft(b, 2));
+        assertEquals(4307152, new Perft(3, 1).perft(b, 2));
+        Map<Move, Long> divide = new Perft(2, 0).divide(b, 1);
+        assertEquals(2176, divide.size());
+        assertEquals(Long.valueOf(1), divide.get(Move.mv("d1-d2(d3)")));
+        assertEquals(position, b.toString());
+    }
+
+    /**
+     * Tests that bench gives the same signature every time.
+     */
+    @Test
+    public void testBench() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        long signature = Benchmark.bench(1, out);
+        assertEquals(signature, Benchmark.bench(1, out));
+        assertTrue(bytes.toString().startsWith("bench 1: "));
+        assertTrue(bytes.toString().contains(
+            String.format("signature %016x", signature)));
+    }
+
+    /**
+     * Tests that each move has one Move, however and on whichever
+     * thread it is made or parsed.
+     */
+    @Test
+    public void testMoveInterning() throws InterruptedException {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(moves);
+        Move[][] found = new Move[4][n];
+        Thread[] threads = new Thread[found.length];
+        for (int k = 0; k < threads.length; k++) {
+            Move[] mine = found[k];
+            boolean parse = k % 2 == 1;
+            threads[k] = new Thread(() -> {
+                for (int i = 0; i < n; i++) {
+                    Move move = Move.mv(moves[i]);
+                    mine[i] = parse ? Move.mv(move.toString()) : move;
+                }
+            });
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < n; i++) {
+            for (Move[] mine : found) {
+                assertSame(found[0][i], mine[i]);
+            }
+            assertEquals(moves[i], found[0][i].packed());
+        }
+        Move odd = Move.mv(Square.sq("a1"), Square.sq("b3"), Square.sq("a6"));
+        assertSame(odd, Move.mv(Square.sq("a1"), Square.sq("b3"),
+                                Square.sq("a6")));
+        assertEquals("a1-b3(a6)", odd.toString());
+        assertNull(Move.mv("a1-b3(a6)"));
+        assertSame(Move.mv("d1 d7 g7"), Move.mv("d1-d7(g7)"));
+    }
+
+    /**
+     * Tests that a multi-threaded search leaves the board alone and
+     * returns a legal move.
+     */
+    @Test
+    public void testParallelSearch() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        String before = b.toString();
+        long key = b.key();
+        AI ai = new AI().setThreads(3).setDepthLimit(2).setMoveMillis(60000);
+        for (int i = 0; i < 2; i++) {
+            Move move = ai.findMove(b);
+            assertTrue(b.isLegal(move));
+            assertEquals(before, b.toString());
+            assertEquals(key, b.key());
+        }
+    }
+
+    /**
+     * Tests that Monte Carlo tree search, with one thread and with
+     * several, finds legal moves and leaves the board unchanged.
+     */
+    @Test
+    public void testMctsFindsLegalMove() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        String before = b.toString();
+        for (int threads = 1; threads <= 3; threads += 2) {
+            MctsAI mcts = new MctsAI().setThreads(threads)
+                .setIterationLimit(500).setMoveMillis(60000);
+            Move move = mcts.findMove(b);
+            assertTrue(b.isLegal(move));
+            assertEquals(before, b.toString());
+            assertEquals(500, mcts.iterations());
+        }
+    }
+
+    /**
+     * Tests that Monte Carlo tree search with no time at all still runs
+     * an iteration and finds a legal move.
+     */
+    @Test
+    public void testMctsZeroTime() {
+        Board b = new Board();
+        for (int threads = 1; threads <= 3; threads += 2) {
+            MctsAI mcts = new MctsAI().setThreads(threads)
+                .setMoveMillis(0);
+            Move move = mcts.findMove(b);
+            assertTrue(b.isLegal(move));
+            assertTrue(mcts.iterations() >= 1);
+        }
+    }
+
+    /**
+     * Tests region classification and solving on a board where each
+     * side is walled into its own corner.
+     */
+    @Test
+    public void testEndgameSolver() {
+        Board b = new Board();
+        for (int s = 0; s < Board.SIZE * Board.SIZE; s++) {
+            b.put(EMPTY, Square.sq(s));
+        }
+        for (String s : new String[] { "d1", "d2", "c2", "c3", "b3", "a3",
+                                       "h10", "h9", "i9", "i8", "j8" }) {
+            b.put(SPEAR, Square.sq(s));
+        }
+        b.put(WHITE, Square.sq("a1"));
+        b.put(BLACK, Square.sq("j10"));
+        EndgameSolver solver = new EndgameSolver();
+        int regions = solver.findRegions(b);
+        assertEquals(3, regions);
+        int owners = 0;
+        for (int k = 0; k < regions; k++) {
+            owners |= 1 << solver.regionOwner(k);
+            if (Bitboards.contains(solver.regionLo(k), solver.regionHi(k),
+                                   Square.sq("b2").index())) {
+                assertEquals(EndgameSolver.WHITE_OWNED, solver.regionOwner(k));
+            }
+        }
+        assertEquals((1 << EndgameSolver.DEAD)
+                     | (1 << EndgameSolver.WHITE_OWNED)
+                     | (1 << EndgameSolver.BLACK_OWNED), owners);
+        assertTrue(solver.partitioned(b));
+        assertEquals(4, solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET));
+        assertEquals(2, solver.moves(b, BLACK, EndgameSolver.ROOT_BUDGET));
+        assertEquals(WHITE, solver.winner(b));
+        Move move = new AI().findMove(b);
+        assertTrue(b.isLegal(move));
+        b.makeMove(move);
+        assertEquals(3, solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET));
+        assertFalse(solver.partitioned(new Board()));
+
+        b = new Board();
+        for (int s = 0; s < Board.SIZE * Board.SIZE; s++) {
+            b.put(SPEAR, Square.sq(s));
+        }
+        for (String s : new String[] { "a4", "d4", "d3", "a2", "d1",
+                                       "f10", "g10", "h10", "i10" }) {
+            b.put(EMPTY, Square.sq(s));
+        }
+        b.put(WHITE, Square.sq("b3"));
+        b.put(WHITE, Square.sq("c2"));
+        b.put(BLACK, Square.sq("j10"));
+        assertEquals(WHITE, b.turn());
+        solver = new EndgameSolver();
+        assertEquals(5, solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET));
+        assertEquals(4, solver.moves(b, BLACK, EndgameSolver.ROOT_BUDGET));
+        assertEquals(WHITE, solver.winner(b));
+        b.makeMove(solver.bestMove(b, EndgameSolver.ROOT_BUDGET,
+                                   Long.MAX_VALUE));
+        assertEquals(4, solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET));
+    }
+
+    /**
+     * Tests that the solver still chooses a legal move when its deadline
+     * has already passed.
+     */
+    @Test
+    public void testEndgameSolverDeadline() {
+        Board b = new Board();
+        for (int s = 0; s < Board.SIZE * Board.SIZE; s++) {
+            b.put(EMPTY, Square.sq(s));
+        }
+        for (int row = 1; row <= Board.SIZE; row++) {
+            b.put(SPEAR, Square.sq("f" + row));
+        }
+        for (String s : new String[] { "a1", "c4", "b8", "e10" }) {
+            b.put(WHITE, Square.sq(s));
+        }
+        for (String s : new String[] { "j1", "h4", "i8", "g10" }) {
+            b.put(BLACK, Square.sq(s));
+        }
+        EndgameSolver solver = new EndgameSolver();
+        assertTrue(solver.partitioned(b));
+        int move = solver.bestMove(b, EndgameSolver.ROOT_BUDGET,
+                                   System.nanoTime());
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertTrue(b.isLegal(new AI().setMoveMillis(0).findMove(b)));
+    }
+
+    /**
+     * Tests that a small region tablebase agrees with the solver.
+     */
+    @Test
+    public void testRegionTablebase() throws IOException {
+        File file = File.createTempFile("regions", ".tb");
+        file.deleteOnExit();
+        RegionTablebase.generate(5, file.getPath());
+        RegionTablebase table = new RegionTablebase(file.getPath());
+        assertEquals(5, table.maxSquares());
+        Board b = new Board();
+        for (int s = 0; s < Board.SIZE * Board.SIZE; s++) {
+            b.put(SPEAR, Square.sq(s));
+        }
+        long lo = 0, hi = 0;
+        for (String s : new String[] { "e5", "f5", "f6", "g7", "e6" }) {
+            b.put(EMPTY, Square.sq(s));
+            lo |= Bitboards.lo(Square.sq(s).index());
+            hi |= Bitboards.hi(Square.sq(s).index());
+        }
+        EndgameSolver solver = new EndgameSolver();
+        for (String s : new String[] { "e5", "f6", "g7" }) {
+            b.put(WHITE, Square.sq(s));
+            int moves = solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET);
+            assertEquals(moves, table.probe(lo, hi, Square.sq(s).index()));
+            b.put(EMPTY, Square.sq(s));
+        }
+        assertEquals(4, table.probe(lo, hi, Square.sq("f5").index()));
+        int e4 = Square.sq("e4").index();
+        assertEquals(-1, table.probe(lo | Bitboards.lo(e4),
+                                     hi | Bitboards.hi(e4), e4));
+        b.put(WHITE, Square.sq("g7"));
+        solver.setTablebase(table);
+        assertEquals(table.probe(lo, hi, Square.sq("g7").index()),
+                     solver.moves(b, WHITE, EndgameSolver.ROOT_BUDGET));
+    }
+
+    /**
+     * Tests that an opening book holds the moves its builder chose and
+     * that an AI plays them without searching.
+     */
+    @Test
+    public void testOpeningBook() throws IOException {
+        File file = File.createTempFile("openings", ".book");
+        file.deleteOnExit();
+        AI builder = new AI().setDepthLimit(1);
+        OpeningBook.build(builder, 2, 2, file.getPath(), null);
+        OpeningBook book = new OpeningBook(file.getPath());
+        assertEquals(3, book.size());
+        Board b = new Board();
+        assertNotEquals(0, book.probe(b.canonicalKey()));
+        AI ai = new AI().setBook(book);
+        Move move = ai.findMove(b);
+        assertTrue(b.isLegal(move));
+        assertEquals(0, ai.nodes());
+        Board mirror = new Board();
+        b.makeMove(move);
+        mirror.makeMove(move.transform(1));
+        assertNotEquals(0, book.probe(b.canonicalKey()));
+        assertEquals(b.canonicalKey(), mirror.canonicalKey());
+        assertEquals(move.transform(1).transform(1), move);
+        b.makeMove(ai.findMove(b));
+        assertEquals(0, book.probe(b.canonicalKey()));
+    }
+
+    /**
+     * Tests the symmetry tables and symmetric position keys.
+     */
+    @Test
+    public void testSymmetry() {
+        for (int t = 0; t < Square.SYMMETRIES; t++) {
+            for (int u = 0; u < Square.SYMMETRIES; u++) {
+                int s = Square.sq("b3").index();
+                assertEquals(Square.transform(Square.transform(s, t), u),
+                             Square.transform(s, Square.compose(t, u)));
+            }
+            assertEquals(0, Square.compose(t, Square.inverse(t)));
+        }
+        assertEquals(Square.sq("c2"), Square.sq("b3").transform(4));
+        assertEquals(Square.sq("i3"), Square.sq("b3").transform(1));
+        Board b = new Board();
+        assertEquals(1 << 1, b.symmetries());
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(moves);
+        assertEquals(n / 2, Move.distinct(moves, n, b.symmetries()));
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        assertEquals(0, b.symmetries());
+        Board twin = new Board();
+        twin.makeMove(Move.mv("g1-g7(d7)"));
+        assertNotEquals(b.key(), twin.key());
+        assertEquals(b.canonicalKey(), twin.canonicalKey());
+        assertEquals(b.key(b.canonicalTransform()),
+                     twin.key(twin.canonicalTransform()));
+    }
+
+    /**
+     * Tests that snapshots and their models change independently.
+     */
+    @Test
+    public void testSnapshotIndependence() {
+        Board b = new Board();
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("b8"));
+        Board snap = b.snapshot();
+        String position = b.toString();
+        b.undo();
+        b.makeMove(Square.sq("j7"), Square.sq("i7"), Square.sq("i6"));
+        assertEquals(position, snap.toString());
+        snap.undo();
+        snap.undo();
+        assertEquals(new Board().toString(), snap.toString());
+        assertEquals(new Board().key(), snap.key());
+        assertEquals(2, b.numMoves());
+        assertEquals(BLACK, b.get(Square.sq("i7")));
+        assertEquals(BLACK, b.get(Square.sq("a7")));
+        b.undo();
+        b.undo();
+        assertEquals(snap.toString(), b.toString());
+        Board view = new Board();
+        view.copy(b);
+        b.makeMove(Square.sq("g1"), Square.sq("g2"), Square.sq("g1"));
+        assertEquals(snap.toString(), view.toString());
+        assertEquals("[d1, g1, a4, j4]", view.getWhiteQueens().toString());
+    }
+
+    /**
+     * Tests that the board's mobility counts follow moves and undos.
+     */
+    @Test
+    public void testMobility() {
+        Board b = new Board();
+        assertEquals(countQueenMoves(b, WHITE), b.mobility(WHITE));
+        b.makeMove(Square.sq("d1"), Square.sq("d7"), Square.sq("g7"));
+        b.makeMove(Square.sq("a7"), Square.sq("b7"), Square.sq("b8"));
+        b.makeMove(Square.sq("g1"), Square.sq("g6"), Square.sq("d1"));
+        assertEquals(countQueenMoves(b, WHITE), b.mobility(WHITE));
+        assertEquals(countQueenMoves(b, BLACK), b.mobility(BLACK));
+        b.undo();
+        b.put(SPEAR, Square.sq("c7"));
+        assertEquals(countQueenMoves(b, WHITE), b.mobility(WHITE));
+        assertEquals(countQueenMoves(b, BLACK), b.mobility(BLACK));
+    }
+
+    /**
+     * Tests that legal moves and reachable squares are counted as they
+     * would be by generating them.
+     */
+    @Test
+    public void testCountLegalMoves() {
+        int[] moves = new int[Board.MAX_MOVES];
+        for (Board b : Benchmark.corpus()) {
+            for (Piece side : new Piece[] { WHITE, BLACK }) {
+                assertEquals(b.legalMoves(side, moves),
+                             b.countLegalMoves(side));
+                int reachable = 0;
+                for (Square q : side == WHITE ? b.getWhiteQueens()
+                         : b.getBlackQueens()) {
+                    reachable += b.countReachable(q);
+                }
+                assertEquals(countQueenMoves(b, side), reachable);
+            }
+        }
+        assertEquals(2176, new Board().countLegalMoves(WHITE));
+    }
+
+    /**
+     * Tests that the winner is that of the position after the last move.
+     */
+    @Test
+    public void testWinnerAfterPut() {
+        Board b = new Board();
+        for (String s : new String[] { "a4", "g1", "j4" }) {
+            b.put(EMPTY, Square.sq(s));
+        }
+        b.put(SPEAR, Square.sq("a2"));
+        b.put(SPEAR, Square.sq("b2"));
+        b.makeMove(Square.sq("d1"), Square.sq("a1"), Square.sq("b1"));
+        assertEquals(null, b.winner());
+        b.makeMove(Square.sq("a7"), Square.sq("a3"), Square.sq("c5"));
+        b.put(EMPTY, Square.sq("b1"));
+        assertEquals(BLACK, b.winner());
+        b.undo();
+        assertEquals(null, b.winner());
+    }
+
+    /** Return the number of queen moves available to SIDE on B. */
+    private static int countQueenMoves(Board b, Piece side) {
+        int n = 0;
+        List<Square> queens =
+            side == WHITE ? b.getWhiteQueens() : b.getBlackQueens();
+        for (Square q : queens) {
+            for (Iterator<Square> i = b.reachableFrom(q, null);
+                 i.next() != null;) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Tests the territory evaluator on symmetric and enclosed positions.
+     */
+    @Test
+    public void testTerritoryEvaluator() {
+        TerritoryEvaluator eval = new TerritoryEvaluator();
+        assertTrue(eval.evaluate(new Board()) > 0);
+        Board b = new Board(), flipped = new Board();
+        for (int s = 0; s < Board.SIZE * Board.SIZE; s++) {
+            b.put(EMPTY, Square.sq(s));
+            flipped.put(EMPTY, Square.sq(s));
+        }
+        for (String s : new String[] { "i10", "i9", "j9" }) {
+            b.put(SPEAR, Square.sq(s));
+            flipped.put(SPEAR, Square.sq(s));
+        }
+        b.put(WHITE, Square.sq("a1"));
+        b.put(BLACK, Square.sq("j10"));
+        flipped.put(BLACK, Square.sq("a1"));
+        flipped.put(WHITE, Square.sq("j10"));
+        int score = eval.evaluate(b);
+        assertTrue(score > 0);
+        assertEquals(-score, eval.evaluate(flipped));
+    }
+
     /**
      * Tests end game moves.
      */
@@ -239,6 +969,34 @@ public class UnitTest {
         assertEquals(4, b.getBlackQueens().size());
     }
 
+    /**
+     * Tests that the queen lists follow moves, undos and puts.
+     */
+    @Test
+    public void testQueenLists() {
+        Board b = new Board();
+        List<Square> whites = b.getWhiteQueens();
+        assertEquals("[d1, g1, a4, j4]", whites.toString());
+        b.makeMove(Square.sq("g1"), Square.sq("b6"), Square.sq("b1"));
+        assertEquals("[d1, a4, j4, b6]", whites.toString());
+        b.makeMove(Square.sq("j7"), Square.sq("j5"), Square.sq("j6"));
+        assertEquals("[j5, a7, d10, g10]", b.getBlackQueens().toString());
+        b.undo();
+        assertEquals("[a7, j7, d10, g10]", b.getBlackQueens().toString());
+        b.undo();
+        assertEquals("[d1, g1, a4, j4]", whites.toString());
+        b.put(EMPTY, Square.sq("a4"));
+        b.put(WHITE, Square.sq("e5"));
+        b.put(WHITE, Square.sq("a10"));
+        assertEquals("[d1, g1, j4, e5, a10]", whites.toString());
+        b.put(BLACK, Square.sq("d1"));
+        assertEquals("[g1, j4, e5, a10]", whites.toString());
+        assertEquals("[d1, a7, j7, d10, g10]",
+                b.getBlackQueens().toString());
+        b.init();
+        assertEquals("[d1, g1, a4, j4]", whites.toString());
+    }
+
     /**
      * Tests if a given piece has a valid move or not.
      */
@@ -0,0 +1,56 @@
+package amazons;
+
+import java.util.Random;
+
+/** Random keys for Zobrist hashing of Amazons positions.  The hash of a
+ *  position is the exclusive or of the key of each piece on its square,
+ *  together with BLACK_TO_MOVE when it is Black's turn, so that it can
+ *  be updated incrementally as pieces come and go.  The keys come from a
+ *  fixed seed, so hashes are the same in every run and every process.
+ *  @author Warner Tsang
+ */
+final class Zobrist {
+
+    /** Not instantiable. */
+    private Zobrist() {
+    }
+
+    /** Return the key for PIECE standing on the square with index SQ.
+     *  The key for EMPTY is 0. */
+    static long key(Piece piece, int sq) {
+        return KEYS[piece.ordinal()][sq];
+    }
+
+    /** Return the key for PIECE standing on square S. */
+    static long key(Piece piece, Square s) {
+        return key(piece, s.index());
+    }
+
+    /** Return the key for SIDE being the side to move. */
+    static long turnKey(Piece side) {
+        return side == Piece.BLACK ? BLACK_TO_MOVE : 0L;
+    }
+
+    /** Seed for the key generator. */
+    private static final long SEED = 0x616d617a6f6e73L;
+
+    /** KEYS[P][S] is the key for the Piece with ordinal P on the square
+     *  with index S. */
+    private static final long[][] KEYS =
+        new long[Piece.values().length][Board.SIZE * Board.SIZE];
+
+    /** Key included when Black is to move. */
+    static final long BLACK_TO_MOVE;
+
+    static {
+        Random gen = new Random(SEED);
+        for (Piece p : Piece.values()) {
+            if (p != Piece.EMPTY) {
+                for (int s = 0; s < Board.SIZE * Board.SIZE; s += 1) {
+                    KEYS[p.ordinal()][s] = gen.nextLong();
+                }
+            }
+        }
+        BLACK_TO_MOVE = gen.nextLong();
+    }
+}
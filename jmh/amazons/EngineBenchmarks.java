@@ -0,0 +1,133 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH versions of the micro-benchmarks in amazons.Benchmark, over the
+ *  same corpus.  Each benchmark is one pass over the whole corpus, so
+ *  its score is the time per pass, and under the GC profiler (which
+ *  "gradle jmh" turns on) gc.alloc.rate.norm is the bytes allocated per
+ *  pass.  Use these for measurements; amazons.Benchmark is only a quick
+ *  check that needs no build.
+ *  @author Warner Tsang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EngineBenchmarks {
+
+    /** Build the corpus, its legal moves, and the AI that searches it. */
+    @Setup
+    public void setup() {
+        _corpus = amazons.Benchmark.corpus();
+        _moves = new int[_corpus.length][];
+        _moveObjects = new Move[_corpus.length][];
+        for (int p = 0; p < _corpus.length; p++) {
+            int n = _corpus[p].legalMoves(_buffer);
+            _moves[p] = Arrays.copyOf(_buffer, n);
+            _moveObjects[p] = new Move[n];
+            for (int i = 0; i < n; i++) {
+                _moveObjects[p][i] = Move.mv(_buffer[i]);
+            }
+        }
+        _ai = new AI().setDepthLimit(amazons.Benchmark.SEARCH_DEPTH)
+            .setMoveMillis(Long.MAX_VALUE / 2_000_000L);
+    }
+
+    /** Generate the packed legal moves of each position. */
+    @Benchmark
+    public void legalMoves(Blackhole sink) {
+        for (Board board : _corpus) {
+            sink.consume(board.legalMoves(_buffer));
+        }
+    }
+
+    /** Count the legal moves of each position. */
+    @Benchmark
+    public void countLegalMoves(Blackhole sink) {
+        for (Board board : _corpus) {
+            sink.consume(board.countLegalMoves(board.turn()));
+        }
+    }
+
+    /** Iterate over the legal Moves of each position. */
+    @Benchmark
+    public void legalMovesIterator(Blackhole sink) {
+        for (Board board : _corpus) {
+            for (Iterator<Move> i = board.legalMoves(); i.hasNext();) {
+                sink.consume(i.next());
+            }
+        }
+    }
+
+    /** Make and undo each legal move of each position. */
+    @Benchmark
+    public void makeMoveUndo(Blackhole sink) {
+        for (int p = 0; p < _corpus.length; p++) {
+            Board board = _corpus[p];
+            for (int move : _moves[p]) {
+                board.makeMove(move);
+                sink.consume(board.key());
+                board.undo();
+            }
+        }
+    }
+
+    /** Test the legality of each legal move of each position. */
+    @Benchmark
+    public void isLegal(Blackhole sink) {
+        for (int p = 0; p < _corpus.length; p++) {
+            for (Move move : _moveObjects[p]) {
+                sink.consume(_corpus[p].isLegal(move));
+            }
+        }
+    }
+
+    /** Statically evaluate each position. */
+    @Benchmark
+    public void staticScore(Blackhole sink) {
+        for (Board board : _corpus) {
+            sink.consume(_ai.staticScore(board));
+        }
+    }
+
+    /** Search each position to SEARCH_DEPTH from an empty table. */
+    @Benchmark
+    public void findMove(Blackhole sink) {
+        for (Board board : _corpus) {
+            _ai.clearTable();
+            sink.consume(_ai.findMove(board));
+        }
+    }
+
+    /** The benchmark corpus. */
+    private Board[] _corpus;
+
+    /** _moves[P] holds the packed legal moves of _corpus[P]. */
+    private int[][] _moves;
+
+    /** _moveObjects[P] holds the legal Moves of _corpus[P]. */
+    private Move[][] _moveObjects;
+
+    /** Buffer for move generation. */
+    private final int[] _buffer = new int[Board.MAX_MOVES];
+
+    /** The AI whose evaluation and search are measured. */
+    private AI _ai;
+}